@@ -0,0 +1,61 @@
+package com.keithbranton.mojo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Whole runs of the join and html2js goals over a synthetic project - cold, with the output and caches deleted first, and with
+ * nothing to do because nothing has changed since the last run
+ * 
+ * @author Keith Branton
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BuildBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Clean {
+		@Setup(Level.Invocation)
+		public void clean(final ProjectState state) throws Exception {
+			state.clean();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Built {
+		@Setup(Level.Trial)
+		public void build(final ProjectState state) throws Exception {
+			state.clean();
+			Mojos.join(state.root).execute();
+			Mojos.html2js(state.root).execute();
+		}
+	}
+
+	@Benchmark
+	public void joinCold(final ProjectState state, final Clean clean) throws Exception {
+		Mojos.join(state.root).execute();
+	}
+
+	@Benchmark
+	public void joinUpToDate(final ProjectState state, final Built built) throws Exception {
+		Mojos.join(state.root).execute();
+	}
+
+	@Benchmark
+	public void html2jsCold(final ProjectState state, final Clean clean) throws Exception {
+		Mojos.html2js(state.root).execute();
+	}
+
+	@Benchmark
+	public void html2jsUpToDate(final ProjectState state, final Built built) throws Exception {
+		Mojos.html2js(state.root).execute();
+	}
+}
@@ -0,0 +1,138 @@
+package com.keithbranton.mojo.benchmarks;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.io.Files;
+import com.keithbranton.mojo.JoinMojo;
+
+/**
+ * Checks that the peak heap used by a cold join stays flat as the number of modules grows, when maxModulesInMemory is set. The live
+ * heap is sampled by forcing a collection every few milliseconds while join runs and reading what each pool held after it, so the
+ * numbers are about what is held rather than what is waiting to be collected - the builds are slow as a result, and the times
+ * shouldn't be compared with anything else.
+ *
+ * The content cache is kept small, as it would be on a small heap, since otherwise it holds as much of the tree as fits in it. The
+ * index of the source folder and the build cache still hold an entry for every file, so the allowance grows by ALLOWANCE_PER_FILE
+ * bytes for each file over the smallest project - the files are large enough that holding their contents would blow through it.
+ *
+ * HeapTest makes the same check on two project sizes with maxModulesInMemory of 1 when the tests are run with -DheapTest=true. This
+ * is only for looking at other limits and more sizes by hand. Run it with: HeapCheck [maxModulesInMemory [modules...]] - it exits
+ * with 1 if the heap wasn't flat
+ *
+ * @author Keith Branton
+ */
+public class HeapCheck {
+	private static final int CONTENT_CACHE_MB = 1;
+	private static final long ALLOWANCE_PER_FILE = 1024;
+	private static final long SAMPLE_MILLIS = 5;
+	private static final int FILE_SIZE = 16384;
+
+	public static void main(final String[] args) throws Exception {
+		int maxModulesInMemory = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		List<Integer> counts = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			counts.add(Integer.parseInt(args[i]));
+		}
+		if (counts.isEmpty()) {
+			for (int modules = 100; modules <= 800; modules *= 2) {
+				counts.add(modules);
+			}
+		}
+
+		System.out.println(String.format(Locale.ROOT, "%8s %10s %16s", "modules", "ms", "peak heap (KB)"));
+		long first = -1;
+		int firstFiles = 0;
+		boolean flat = true;
+		for (int modules : counts) {
+			SyntheticProject project = new SyntheticProject(modules, 10, 3, FILE_SIZE, 5);
+			long start = System.currentTimeMillis();
+			long peak = measure(project, maxModulesInMemory);
+			long millis = System.currentTimeMillis() - start;
+			if (first < 0) {
+				first = peak;
+				firstFiles = project.getFileCount();
+			}
+			long allowed = first * 3 / 2 + (project.getFileCount() - firstFiles) * ALLOWANCE_PER_FILE;
+			flat &= peak <= allowed;
+			System.out.println(String.format(Locale.ROOT, "%8d %10d %16d%s", modules, millis, peak / 1024, peak <= allowed ? ""
+					: "  more than the " + allowed / 1024 + "KB allowed"));
+		}
+		System.out.println(flat ? "The peak heap was flat" : "The peak heap grew with the number of modules");
+		System.exit(flat ? 0 : 1);
+	}
+
+	/**
+	 * @return the most heap that was used by the build, over what was used before it started
+	 */
+	private static long measure(final SyntheticProject project, final int maxModulesInMemory) throws Exception {
+		File root = Files.createTempDir();
+		try {
+			project.generate(root);
+			JoinMojo join = Mojos.join(root);
+			Mojos.set(join, "contentCacheSize", CONTENT_CACHE_MB);
+			Mojos.set(join, "maxModulesInMemory", maxModulesInMemory);
+
+			Sampler sampler = new Sampler();
+			sampler.start();
+			try {
+				join.execute();
+			} finally {
+				sampler.finish();
+			}
+			return sampler.peak - sampler.baseline;
+		} finally {
+			FileUtils.deleteDirectory(root);
+		}
+	}
+
+	private static class Sampler extends Thread {
+		private final long baseline;
+		private volatile boolean finished;
+		private long peak;
+
+		private Sampler() {
+			baseline = sample();
+			peak = baseline;
+			setDaemon(true);
+		}
+
+		/**
+		 * @return what was left in the heap by a full collection - not counting anything allocated since, as the build carries on
+		 */
+		private long sample() {
+			System.gc();
+			long used = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+					used += pool.getCollectionUsage().getUsed();
+				}
+			}
+			return used;
+		}
+
+		@Override
+		public void run() {
+			while (!finished) {
+				peak = Math.max(peak, sample());
+				try {
+					Thread.sleep(SAMPLE_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		private void finish() throws InterruptedException {
+			finished = true;
+			join();
+		}
+	}
+}
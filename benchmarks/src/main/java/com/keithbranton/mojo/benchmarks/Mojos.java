@@ -0,0 +1,148 @@
+package com.keithbranton.mojo.benchmarks;
+
+import java.io.File;
+import java.lang.reflect.Field;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.logging.Log;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import com.keithbranton.mojo.Html2jsMojo;
+import com.keithbranton.mojo.JoinMojo;
+
+/**
+ * Configures the goals the way maven would for a project generated by SyntheticProject, but with logging turned off
+ * 
+ * @author Keith Branton
+ */
+public class Mojos {
+	private Mojos() {
+	}
+
+	public static JoinMojo join(final File root) throws ReflectiveOperationException {
+		JoinMojo mojo = new JoinMojo();
+		set(mojo, "source", new File(root, "src/main/js"));
+		set(mojo, "main", "main.js");
+		set(mojo, "app", "app.js");
+		set(mojo, "modules", "**/*Module.js");
+		set(mojo, "templates", "*.html");
+		set(mojo, "joinable", "/js/**/*.js");
+		set(mojo, "target", new File(root, "target/js"));
+		set(mojo, "prefix", "");
+		set(mojo, "cacheDirectory", new File(root, "target/angular-maven-plugin"));
+		set(mojo, "contentCacheSize", 64);
+		return configure(mojo);
+	}
+
+	public static Html2jsMojo html2js(final File root) throws ReflectiveOperationException {
+		Html2jsMojo mojo = new Html2jsMojo();
+		set(mojo, "moduleName", "templates-main");
+		set(mojo, "sourceDir", new File(root, "src/main/js"));
+		set(mojo, "angularDependency", "angular");
+		set(mojo, "include", "**/*.html");
+		set(mojo, "target", new File(root, "target/gen/templates.js"));
+		set(mojo, "cacheDirectory", new File(root, "target/angular-maven-plugin"));
+		set(mojo, "encoding", "UTF-8");
+		return configure(mojo);
+	}
+
+	/**
+	 * Set a parameter, as maven would
+	 */
+	public static void set(final Object mojo, final String name, final Object value) throws ReflectiveOperationException {
+		for (Class<?> type = mojo.getClass(); type != null; type = type.getSuperclass()) {
+			try {
+				Field field = type.getDeclaredField(name);
+				field.setAccessible(true);
+				field.set(mojo, value);
+				return;
+			} catch (NoSuchFieldException e) {
+				// try the superclass
+			}
+		}
+		throw new NoSuchFieldException(name);
+	}
+
+	private static <T extends AbstractMojo> T configure(final T mojo) throws ReflectiveOperationException {
+		set(mojo, "buildContext", new DefaultBuildContext());
+		mojo.setLog(new QuietLog());
+		return mojo;
+	}
+
+	/**
+	 * Throws away everything but errors, so that logging doesn't dominate the measurements
+	 */
+	private static class QuietLog implements Log {
+		@Override
+		public boolean isDebugEnabled() {
+			return false;
+		}
+
+		@Override
+		public void debug(final CharSequence content) {
+		}
+
+		@Override
+		public void debug(final CharSequence content, final Throwable error) {
+		}
+
+		@Override
+		public void debug(final Throwable error) {
+		}
+
+		@Override
+		public boolean isInfoEnabled() {
+			return false;
+		}
+
+		@Override
+		public void info(final CharSequence content) {
+		}
+
+		@Override
+		public void info(final CharSequence content, final Throwable error) {
+		}
+
+		@Override
+		public void info(final Throwable error) {
+		}
+
+		@Override
+		public boolean isWarnEnabled() {
+			return false;
+		}
+
+		@Override
+		public void warn(final CharSequence content) {
+		}
+
+		@Override
+		public void warn(final CharSequence content, final Throwable error) {
+		}
+
+		@Override
+		public void warn(final Throwable error) {
+		}
+
+		@Override
+		public boolean isErrorEnabled() {
+			return true;
+		}
+
+		@Override
+		public void error(final CharSequence content) {
+			System.err.println("[error] " + content);
+		}
+
+		@Override
+		public void error(final CharSequence content, final Throwable error) {
+			System.err.println("[error] " + content);
+			error.printStackTrace();
+		}
+
+		@Override
+		public void error(final Throwable error) {
+			error.printStackTrace();
+		}
+	}
+}
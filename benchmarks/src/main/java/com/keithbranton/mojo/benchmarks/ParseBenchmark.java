@@ -0,0 +1,223 @@
+package com.keithbranton.mojo.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.AbstractScanner;
+import org.codehaus.plexus.util.SelectorUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.keithbranton.mojo.Define;
+import com.keithbranton.mojo.GlobMatcher;
+import com.keithbranton.mojo.PathRewriter;
+import com.keithbranton.mojo.TemplateEscaper;
+
+/**
+ * The text processing the goals do for every file, measured over the whole of a synthetic project with nothing read from disk
+ * 
+ * @author Keith Branton
+ */
+@State(Scope.Thread)
+public class ParseBenchmark {
+	// the modules and joinable globs of the join goal, which every glob benchmark matches every path against
+	private static final String[] GLOBS = { "**/*Module.js", "/js/**/*.js" };
+
+	/**
+	 * The plexus scanner the globs were matched with before they were compiled, as GlobMatcher used it
+	 */
+	private static class BaselineScanner extends AbstractScanner {
+		private BaselineScanner(final String[] globs) {
+			setIncludes(globs);
+		}
+
+		@Override
+		public void scan() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String[] getIncludedFiles() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String[] getIncludedDirectories() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public File getBasedir() {
+			throw new UnsupportedOperationException();
+		}
+
+		private boolean matches(final String name) {
+			return isIncluded(name);
+		}
+	}
+
+	/**
+	 * A single template of templateBytes characters, far bigger than any the synthetic project has, to see how escaping scales with the
+	 * size of a template rather than the number of them
+	 */
+	@State(Scope.Thread)
+	public static class LargeTemplate {
+		@Param({ "1048576", "8388608" })
+		public int templateBytes;
+
+		public String template;
+
+		@Setup(Level.Trial)
+		public void generate() {
+			StringBuilder result = new StringBuilder(templateBytes + 128).append("<div class=\"large\">\n");
+			int n = 0;
+			while (result.length() < templateBytes) {
+				result.append("\t<p ng-if=\"item").append(n).append(" > 0\">Value \"").append(n++ * 7919 % 100000)
+						.append("\" \\ {{ item | filter }} \u00e9\u2028</p>\n");
+			}
+			template = result.append("</div>\n").toString();
+		}
+	}
+
+	private final List<String> scripts = new ArrayList<>();
+	private final Map<String, String> templates = new LinkedHashMap<>();
+	// the path of every file relative to the folder the globs are relative to, and its absolute path
+	private final List<String> paths = new ArrayList<>();
+	private final List<String> absolutePaths = new ArrayList<>();
+	private String base;
+	private final Map<String, String> moduleMap = new LinkedHashMap<>();
+	private String main;
+	private GlobMatcher matcher;
+	private TemplateEscaper escaper;
+
+	@Setup(Level.Trial)
+	public void load(final ProjectState state) throws IOException {
+		for (File file : Files.fileTreeTraverser().preOrderTraversal(state.source)) {
+			if (file.getName().endsWith(".js")) {
+				scripts.add(Files.toString(file, Charsets.UTF_8));
+			} else if (file.getName().endsWith(".html")) {
+				templates.put(file.getName(), Files.toString(file, Charsets.UTF_8));
+			}
+			if (file.isFile()) {
+				paths.add(file.getAbsolutePath().substring(state.source.getParentFile().getAbsolutePath().length()));
+				absolutePaths.add(file.getAbsolutePath());
+			}
+		}
+		main = Files.toString(new File(state.source, "main.js"), Charsets.UTF_8);
+		// the same mapping the join goal makes for each module it finds
+		for (int i = 0; i < state.modules; i++) {
+			String name = state.project.getModuleName(i);
+			moduleMap.put("/" + name + "/" + name + "Module", "/" + name + "Module");
+		}
+		base = state.source.getParentFile().getAbsolutePath();
+		matcher = new GlobMatcher(state.source.getParentFile(), GLOBS);
+		escaper = new TemplateEscaper(Charsets.UTF_8);
+	}
+
+	@Benchmark
+	public void define(final Blackhole blackhole) {
+		for (String script : scripts) {
+			blackhole.consume(Define.parse(script));
+		}
+	}
+
+	@Benchmark
+	public void glob(final Blackhole blackhole) {
+		for (String path : paths) {
+			blackhole.consume(matcher.matches(path));
+		}
+	}
+
+	/**
+	 * The plexus matching the globs replaced, for comparison
+	 */
+	@Benchmark
+	public void globSelectorUtils(final Blackhole blackhole) {
+		for (String path : paths) {
+			boolean matches = false;
+			for (int i = 0; i < GLOBS.length && !matches; i++) {
+				matches = SelectorUtils.matchPath(GLOBS[i], path);
+			}
+			blackhole.consume(matches);
+		}
+	}
+
+	/**
+	 * The matching as it was before the globs were compiled - a scanner made for each file, as findDependencies did, matching the
+	 * absolute path with the base directory replaced
+	 */
+	@Benchmark
+	public void globBaseline(final Blackhole blackhole) {
+		for (String path : absolutePaths) {
+			blackhole.consume(new BaselineScanner(GLOBS).matches(path.replace(base, "/")));
+		}
+	}
+
+	@Benchmark
+	public void escape(final Blackhole blackhole) throws IOException {
+		for (Map.Entry<String, String> template : templates.entrySet()) {
+			StringWriter out = new StringWriter(template.getValue().length() + 64);
+			escaper.writePut(new StringReader(template.getValue()), "\"" + template.getKey() + "\"", out, "\n");
+			blackhole.consume(out);
+		}
+	}
+
+	/**
+	 * The same templates as entries of a table, as templateFormat table writes them
+	 */
+	@Benchmark
+	public void escapeTable(final Blackhole blackhole) throws IOException {
+		for (Map.Entry<String, String> template : templates.entrySet()) {
+			StringWriter out = new StringWriter(template.getValue().length() + 64);
+			escaper.writeEntry(new StringReader(template.getValue()), template.getKey(), out);
+			blackhole.consume(out);
+		}
+	}
+
+	@Benchmark
+	public void escapeLarge(final LargeTemplate large, final Blackhole blackhole) throws IOException {
+		StringWriter out = new StringWriter(large.template.length() * 2);
+		escaper.writePut(new StringReader(large.template), "\"large.html\"", out, "\n");
+		blackhole.consume(out);
+	}
+
+	@Benchmark
+	public void escapeLargeTable(final LargeTemplate large, final Blackhole blackhole) throws IOException {
+		StringWriter out = new StringWriter(large.template.length() * 2);
+		escaper.writeEntry(new StringReader(large.template), "large.html", out);
+		blackhole.consume(out);
+	}
+
+	/**
+	 * Rewriting the module paths in main.js, as processMain does
+	 */
+	@Benchmark
+	public String rewriteMain() {
+		return new PathRewriter(moduleMap).rewrite(main);
+	}
+
+	/**
+	 * The replace loop the rewriter replaced, for comparison
+	 */
+	@Benchmark
+	public String rewriteMainReplace() {
+		String result = main;
+		for (Map.Entry<String, String> entry : moduleMap.entrySet()) {
+			result = result.replace(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,61 @@
+package com.keithbranton.mojo.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.common.io.Files;
+
+/**
+ * A synthetic project, generated into a temporary folder once per trial. The parameters can be overridden from the command line,
+ * e.g. -p modules=200 -p fileSize=16384
+ * 
+ * @author Keith Branton
+ */
+@State(Scope.Benchmark)
+public class ProjectState {
+	@Param("50")
+	public int modules;
+
+	@Param("10")
+	public int fanIn;
+
+	@Param("3")
+	public int depth;
+
+	@Param("4096")
+	public int fileSize;
+
+	@Param("5")
+	public int templates;
+
+	public File root;
+	public File source;
+	public SyntheticProject project;
+
+	@Setup(Level.Trial)
+	public void generate() throws IOException {
+		project = new SyntheticProject(modules, fanIn, depth, fileSize, templates);
+		root = Files.createTempDir();
+		source = project.generate(root);
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	/**
+	 * Remove everything the goals have generated, including their caches, so the next build starts from scratch
+	 */
+	public void clean() throws IOException {
+		FileUtils.deleteDirectory(new File(root, "target"));
+	}
+}
@@ -0,0 +1,170 @@
+package com.keithbranton.mojo.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Generates a synthetic angularjs source tree in the layout the join goal expects - src/main/js/&lt;name&gt;/&lt;name&gt;Module.js for
+ * each module, with a main.js, an app.js and a folder of shared files. The same settings always generate exactly the same files, so
+ * results can be compared from one commit to the next.
+ * 
+ * Each module depends on a chain of depth files of its own and on SHARED_PER_MODULE of the shared files, which are spread so that
+ * each shared file is used by about fanIn modules. Every js file is padded to about fileSize bytes, and each module folder gets
+ * templates html templates of about the same size.
+ * 
+ * Run the main method to generate a tree to look at: SyntheticProject &lt;folder&gt; [modules [fanIn [depth [fileSize [templates]]]]]
+ * 
+ * @author Keith Branton
+ */
+public class SyntheticProject {
+	public static final int SHARED_PER_MODULE = 4;
+
+	private final int modules;
+	private final int fanIn;
+	private final int depth;
+	private final int fileSize;
+	private final int templates;
+
+	public SyntheticProject(final int modules, final int fanIn, final int depth, final int fileSize, final int templates) {
+		this.modules = modules;
+		this.fanIn = Math.max(1, fanIn);
+		this.depth = depth;
+		this.fileSize = fileSize;
+		this.templates = templates;
+	}
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: SyntheticProject <folder> [modules [fanIn [depth [fileSize [templates]]]]]");
+			System.exit(1);
+		}
+		SyntheticProject project = new SyntheticProject(arg(args, 1, 50), arg(args, 2, 10), arg(args, 3, 3), arg(args, 4, 4096), arg(
+				args, 5, 5));
+		project.generate(new File(args[0]));
+		System.out.println("Generated " + project + " in " + args[0]);
+	}
+
+	private static int arg(final String[] args, final int index, final int defaultValue) {
+		return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+	}
+
+	public int getSharedCount() {
+		return Math.max(1, (modules * SHARED_PER_MODULE + fanIn - 1) / fanIn);
+	}
+
+	/**
+	 * @return the number of files that are generated
+	 */
+	public int getFileCount() {
+		return 2 + getSharedCount() + modules * (1 + depth + templates);
+	}
+
+	public String getModuleName(final int module) {
+		return "mod" + module;
+	}
+
+	/**
+	 * Write the tree under root - anything already in root/src is deleted first
+	 *
+	 * @return the source folder, root/src/main/js
+	 */
+	public File generate(final File root) throws IOException {
+		File source = new File(root, "src/main/js");
+		FileUtils.deleteDirectory(new File(root, "src"));
+		source.mkdirs();
+		Random random = new Random(42);
+
+		// main.js maps every module to its location
+		StringBuilder main = new StringBuilder("require.config({\n\tpaths : {\n");
+		for (int i = 0; i < modules; i++) {
+			String name = getModuleName(i);
+			main.append("\t\t'").append(name).append("' : '/js/").append(name).append('/').append(name).append("Module'")
+					.append(i < modules - 1 ? ",\n" : "\n");
+		}
+		main.append("\t}\n});\n");
+		write(new File(source, "main.js"), main);
+
+		int shared = getSharedCount();
+		List<String> appDeps = new ArrayList<>();
+		for (int i = 0; i < Math.min(shared, SHARED_PER_MODULE); i++) {
+			appDeps.add("/js/shared/shared" + i + ".js");
+		}
+		write(new File(source, "app.js"), file("app", appDeps, "return angular.module('app', []);", random));
+
+		for (int i = 0; i < shared; i++) {
+			write(new File(source, "shared/shared" + i + ".js"), file("shared" + i, new ArrayList<String>(), "", random));
+		}
+
+		for (int i = 0; i < modules; i++) {
+			String name = getModuleName(i);
+			File folder = new File(source, name);
+			List<String> deps = new ArrayList<>();
+			if (depth > 0) {
+				deps.add(name + "Part1.js");
+			}
+			for (int k = 0; k < SHARED_PER_MODULE; k++) {
+				deps.add("/js/shared/shared" + (i * SHARED_PER_MODULE + k) % shared + ".js");
+			}
+			write(new File(folder, name + "Module.js"), file(name, deps, "return angular.module(\"" + name + "\", [ 'ngRoute' ]);",
+					random));
+			for (int d = 1; d <= depth; d++) {
+				List<String> partDeps = new ArrayList<>();
+				if (d < depth) {
+					partDeps.add(name + "Part" + (d + 1) + ".js");
+				}
+				write(new File(folder, name + "Part" + d + ".js"), file(name + "Part" + d, partDeps, "", random));
+			}
+			for (int t = 0; t < templates; t++) {
+				write(new File(folder, "view" + t + ".html"), template(name + "-view" + t, random));
+			}
+		}
+		return source;
+	}
+
+	private CharSequence file(final String name, final List<String> deps, final String body, final Random random) {
+		StringBuilder result = new StringBuilder("define([ 'angular'");
+		for (String dep : deps) {
+			result.append(", '").append(dep).append('\'');
+		}
+		result.append(", 'lodash' ], function(angular) {\n");
+		result.append("\t// ").append(name).append(" - generated, with a ] bracket and a \"quote\" in the comment\n");
+		int n = 0;
+		while (result.length() < fileSize - body.length() - 10) {
+			result.append("\tvar ").append(name).append('_').append(n++).append(" = function(a, b) {\n");
+			result.append("\t\treturn a * ").append(random.nextInt(1000)).append(" + \"").append(Long.toHexString(random.nextLong()))
+					.append("\" + b; // ").append(random.nextInt()).append('\n');
+			result.append("\t};\n");
+		}
+		result.append('\t').append(body).append("\n});\n");
+		return result;
+	}
+
+	private CharSequence template(final String name, final Random random) {
+		StringBuilder result = new StringBuilder("<div class=\"").append(name).append("\">\n");
+		int n = 0;
+		while (result.length() < fileSize) {
+			result.append("\t<p ng-if=\"item").append(n++).append(" > 0\">Value \"").append(random.nextInt(100000))
+					.append("\" \\ {{ item | filter }}</p>\n");
+		}
+		return result.append("</div>\n");
+	}
+
+	private void write(final File file, final CharSequence contents) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(contents, file, Charsets.UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		return modules + " modules, " + getSharedCount() + " shared files (fan in " + fanIn + "), depth " + depth + ", " + fileSize
+				+ " byte files, " + templates + " templates per module";
+	}
+}
@@ -0,0 +1,79 @@
+package com.keithbranton.mojo.benchmarks;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.keithbranton.mojo.Html2jsMojo;
+import com.keithbranton.mojo.JoinMojo;
+
+/**
+ * Cold runs of the join and html2js goals with each templateFormat, to compare how long the templates take to generate. The size of
+ * what the last run of each iteration generated is printed after it, to compare how big they are
+ *
+ * @author Keith Branton
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TemplateFormatBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Clean {
+		@Setup(Level.Invocation)
+		public void clean(final ProjectState state) throws Exception {
+			state.clean();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Format {
+		@Param({ "put", "table" })
+		public String templateFormat;
+
+		@TearDown(Level.Iteration)
+		public void size(final ProjectState state) {
+			File templates = new File(state.root, "target/gen/templates.js");
+			if (templates.isFile()) {
+				print("html2js", templates.length());
+			}
+			File[] modules = new File(state.root, "target/js").listFiles();
+			if (modules != null) {
+				long size = 0;
+				for (File module : modules) {
+					size += module.length();
+				}
+				print("join", size);
+			}
+		}
+
+		private void print(final String goal, final long size) {
+			System.out.println(String.format(Locale.ROOT, "%n%s with templateFormat %s generated %d bytes", goal, templateFormat,
+					size));
+		}
+	}
+
+	@Benchmark
+	public void joinCold(final ProjectState state, final Format format, final Clean clean) throws Exception {
+		JoinMojo join = Mojos.join(state.root);
+		Mojos.set(join, "templateFormat", format.templateFormat);
+		join.execute();
+	}
+
+	@Benchmark
+	public void html2jsCold(final ProjectState state, final Format format, final Clean clean) throws Exception {
+		Html2jsMojo html2js = Mojos.html2js(state.root);
+		Mojos.set(html2js, "templateFormat", format.templateFormat);
+		html2js.execute();
+	}
+}
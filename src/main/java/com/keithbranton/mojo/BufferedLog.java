@@ -0,0 +1,168 @@
+package com.keithbranton.mojo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A maven Log that holds on to everything logged through it until it is flushed to the real log - used to keep the log output of work
+ * done on other threads in the same order as it would be when run sequentially
+ * 
+ * @author Keith Branton
+ */
+public class BufferedLog implements Log {
+	private enum Level {
+		DEBUG, INFO, WARN, ERROR
+	}
+
+	private static class Entry {
+		private final Level level;
+		private final CharSequence content;
+		private final Throwable error;
+
+		private Entry(final Level level, final CharSequence content, final Throwable error) {
+			this.level = level;
+			this.content = content;
+			this.error = error;
+		}
+	}
+
+	private final Log delegate;
+	private final List<Entry> entries = new ArrayList<>();
+
+	public BufferedLog(final Log delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Write everything logged so far to the delegate log, in the order it was logged
+	 */
+	public synchronized void flush() {
+		for (Entry entry : entries) {
+			switch (entry.level) {
+			case DEBUG:
+				if (entry.error == null) {
+					delegate.debug(entry.content);
+				} else if (entry.content == null) {
+					delegate.debug(entry.error);
+				} else {
+					delegate.debug(entry.content, entry.error);
+				}
+				break;
+			case INFO:
+				if (entry.error == null) {
+					delegate.info(entry.content);
+				} else if (entry.content == null) {
+					delegate.info(entry.error);
+				} else {
+					delegate.info(entry.content, entry.error);
+				}
+				break;
+			case WARN:
+				if (entry.error == null) {
+					delegate.warn(entry.content);
+				} else if (entry.content == null) {
+					delegate.warn(entry.error);
+				} else {
+					delegate.warn(entry.content, entry.error);
+				}
+				break;
+			case ERROR:
+				if (entry.error == null) {
+					delegate.error(entry.content);
+				} else if (entry.content == null) {
+					delegate.error(entry.error);
+				} else {
+					delegate.error(entry.content, entry.error);
+				}
+				break;
+			}
+		}
+		entries.clear();
+	}
+
+	private synchronized void add(final Level level, final CharSequence content, final Throwable error) {
+		entries.add(new Entry(level, content, error));
+	}
+
+	@Override
+	public boolean isDebugEnabled() {
+		return delegate.isDebugEnabled();
+	}
+
+	@Override
+	public void debug(final CharSequence content) {
+		add(Level.DEBUG, content, null);
+	}
+
+	@Override
+	public void debug(final CharSequence content, final Throwable error) {
+		add(Level.DEBUG, content, error);
+	}
+
+	@Override
+	public void debug(final Throwable error) {
+		add(Level.DEBUG, null, error);
+	}
+
+	@Override
+	public boolean isInfoEnabled() {
+		return delegate.isInfoEnabled();
+	}
+
+	@Override
+	public void info(final CharSequence content) {
+		add(Level.INFO, content, null);
+	}
+
+	@Override
+	public void info(final CharSequence content, final Throwable error) {
+		add(Level.INFO, content, error);
+	}
+
+	@Override
+	public void info(final Throwable error) {
+		add(Level.INFO, null, error);
+	}
+
+	@Override
+	public boolean isWarnEnabled() {
+		return delegate.isWarnEnabled();
+	}
+
+	@Override
+	public void warn(final CharSequence content) {
+		add(Level.WARN, content, null);
+	}
+
+	@Override
+	public void warn(final CharSequence content, final Throwable error) {
+		add(Level.WARN, content, error);
+	}
+
+	@Override
+	public void warn(final Throwable error) {
+		add(Level.WARN, null, error);
+	}
+
+	@Override
+	public boolean isErrorEnabled() {
+		return delegate.isErrorEnabled();
+	}
+
+	@Override
+	public void error(final CharSequence content) {
+		add(Level.ERROR, content, null);
+	}
+
+	@Override
+	public void error(final CharSequence content, final Throwable error) {
+		add(Level.ERROR, content, error);
+	}
+
+	@Override
+	public void error(final Throwable error) {
+		add(Level.ERROR, null, error);
+	}
+}
@@ -0,0 +1,319 @@
+package com.keithbranton.mojo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * A persistent record of what each generated file was built from - the effective configuration and a content hash of every input file.
+ * An output is up to date when its configuration and the set of inputs and their hashes are unchanged, regardless of file timestamps.
+ * 
+ * The size and modification time of each input are recorded too, along with a reverse index from each input to the outputs built from
+ * it, so the outputs that might be out of date can be found without reading any of the inputs.
+ * 
+ * @author Keith Branton
+ */
+public class BuildCache {
+	private static final String HEADER = "# angular-maven-plugin build cache v2 - do not edit";
+
+	/**
+	 * The version of what the goals generate, which is part of the configuration of every output - so that everything is built again
+	 * after an upgrade of the plugin changes the output. Increase it with any change that does
+	 */
+	public static final int FORMAT_VERSION = 2;
+
+	/**
+	 * The state of an input file when an output was built from it
+	 */
+	public static class Input {
+		private final String hash;
+		private final long size;
+		private final long lastModified;
+
+		/**
+		 * @param hash the content hash
+		 * @param size the size of the file, taken before it was read
+		 * @param lastModified the modification time of the file, taken before it was read
+		 */
+		public Input(final String hash, final long size, final long lastModified) {
+			this.hash = hash;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		public String getHash() {
+			return hash;
+		}
+
+		private boolean isUnchanged(final long currentSize, final long currentLastModified) {
+			return currentSize == size && currentLastModified == lastModified;
+		}
+	}
+
+	private static class Entry {
+		private final String configuration;
+		private final Map<String, Input> inputs;
+
+		private Entry(final String configuration, final Map<String, Input> inputs) {
+			this.configuration = configuration;
+			this.inputs = inputs;
+		}
+	}
+
+	private final File file;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	// the outputs built from each input, guarded by this
+	private final Map<String, Set<String>> outputsByInput = new HashMap<>();
+
+	public BuildCache(final File file) {
+		this.file = file;
+	}
+
+	public static String hash(final CharSequence contents) {
+		return Hashing.sha1().hashString(contents, Charsets.UTF_8).toString();
+	}
+
+	public static String hash(final File file) throws IOException {
+		return Files.hash(file, Hashing.sha1()).toString();
+	}
+
+	/**
+	 * Read the manifest from disk. A missing or unreadable manifest simply results in an empty cache
+	 * 
+	 * @return true if the manifest was read
+	 */
+	public synchronized boolean load() {
+		entries.clear();
+		outputsByInput.clear();
+		if (!file.exists()) {
+			return false;
+		}
+		try (BufferedReader reader = Files.newReader(file, Charsets.UTF_8)) {
+			if (!HEADER.equals(reader.readLine())) {
+				return false;
+			}
+			String output = null;
+			Map<String, Input> inputs = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t");
+				if (parts.length == 3 && parts[0].equals("output")) {
+					output = parts[1];
+					inputs = new LinkedHashMap<>();
+					entries.put(output, new Entry(parts[2], inputs));
+				} else if (parts.length == 5 && parts[0].equals("input") && inputs != null) {
+					inputs.put(parts[1], new Input(parts[2], Long.parseLong(parts[3]), Long.parseLong(parts[4])));
+					index(output, parts[1]);
+				} else {
+					entries.clear();
+					outputsByInput.clear();
+					return false;
+				}
+			}
+			return true;
+		} catch (IOException | NumberFormatException e) {
+			entries.clear();
+			outputsByInput.clear();
+			return false;
+		}
+	}
+
+	/**
+	 * Write the manifest to disk - via a temporary file so that an interrupted build can't leave a truncated manifest behind
+	 */
+	public void save() throws IOException {
+		file.getParentFile().mkdirs();
+		File temp = new File(file.getPath() + ".tmp");
+		try (BufferedWriter writer = Files.newWriter(temp, Charsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				writer.write("output\t" + entry.getKey() + "\t" + entry.getValue().configuration);
+				writer.newLine();
+				for (Map.Entry<String, Input> input : entry.getValue().inputs.entrySet()) {
+					Input value = input.getValue();
+					writer.write("input\t" + input.getKey() + "\t" + value.hash + "\t" + value.size + "\t" + value.lastModified);
+					writer.newLine();
+				}
+			}
+		}
+		if (!temp.renameTo(file)) {
+			Files.move(temp, file);
+		}
+	}
+
+	/**
+	 * @param output the generated file
+	 * @param configuration a hash of the configuration that affects the content of the output
+	 * @param inputs every file the output is built from
+	 * @return true if the output exists and was built from exactly this configuration and the same content of these inputs
+	 */
+	public boolean isUpToDate(final File output, final String configuration, final Map<File, Input> inputs) {
+		Entry entry = entries.get(output.getAbsolutePath());
+		if (entry == null || !output.exists() || !entry.configuration.equals(configuration)) {
+			return false;
+		}
+		return hashes(entry.inputs).equals(hashes(toPaths(inputs)));
+	}
+
+	/**
+	 * @return true if the output exists and was built with this configuration from files that all still have the size and modification
+	 *         time they had then - which doesn't need any of them to be read
+	 */
+	public boolean isUnchanged(final File output, final String configuration, final Set<File> affected) {
+		Entry entry = entries.get(output.getAbsolutePath());
+		return entry != null && entry.configuration.equals(configuration) && !affected.contains(output.getAbsoluteFile())
+				&& output.exists();
+	}
+
+	/**
+	 * @return the files the output was built from, or an empty set if it isn't known
+	 */
+	public Set<File> getInputs(final File output) {
+		Entry entry = entries.get(output.getAbsolutePath());
+		Set<File> results = new LinkedHashSet<>();
+		if (entry != null) {
+			for (String input : entry.inputs.keySet()) {
+				results.add(new File(input));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Check every input once, using the reverse index to find the outputs built from the ones that have been modified or deleted
+	 * 
+	 * @return the outputs that may be out of date because of their inputs
+	 */
+	public synchronized Set<File> findAffected() {
+		Set<File> results = new HashSet<>();
+		for (Map.Entry<String, Set<String>> input : outputsByInput.entrySet()) {
+			// a file that no longer exists has a modification time of zero
+			File inputFile = new File(input.getKey());
+			long size = inputFile.length();
+			long lastModified = inputFile.lastModified();
+			for (String output : input.getValue()) {
+				Entry entry = entries.get(output);
+				if (entry != null && !entry.inputs.get(input.getKey()).isUnchanged(size, lastModified)) {
+					results.add(new File(output));
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Use the reverse index to find the outputs built from the files that an incremental build says have changed or been deleted,
+	 * without checking any other inputs. A deleted folder affects the outputs built from anything that was in it
+	 * 
+	 * @return the outputs that may be out of date because of those files
+	 */
+	public synchronized Set<File> findAffected(final Collection<File> files) {
+		Set<File> results = new HashSet<>();
+		for (File file : files) {
+			String path = file.getAbsolutePath();
+			Set<String> outputs = outputsByInput.get(path);
+			if (outputs != null) {
+				addFiles(results, outputs);
+			} else if (!file.isFile()) {
+				for (Map.Entry<String, Set<String>> input : outputsByInput.entrySet()) {
+					if (input.getKey().startsWith(path + File.separator)) {
+						addFiles(results, input.getValue());
+					}
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @return every output there is a record of
+	 */
+	public Set<File> getOutputs() {
+		Set<File> results = new HashSet<>();
+		for (String output : entries.keySet()) {
+			results.add(new File(output));
+		}
+		return results;
+	}
+
+	/**
+	 * Forget an output that is no longer generated
+	 */
+	public synchronized void remove(final File output) {
+		String path = output.getAbsolutePath();
+		Entry previous = entries.remove(path);
+		if (previous != null) {
+			unindex(path, previous);
+		}
+	}
+
+	/**
+	 * Record that the output has been built from the given configuration and inputs
+	 */
+	public synchronized void update(final File output, final String configuration, final Map<File, Input> inputs) {
+		String path = output.getAbsolutePath();
+		Entry previous = entries.put(path, new Entry(configuration, Collections.unmodifiableMap(toPaths(inputs))));
+		if (previous != null) {
+			unindex(path, previous);
+		}
+		for (File input : inputs.keySet()) {
+			index(path, input.getAbsolutePath());
+		}
+	}
+
+	private void unindex(final String output, final Entry entry) {
+		for (String input : entry.inputs.keySet()) {
+			Set<String> outputs = outputsByInput.get(input);
+			outputs.remove(output);
+			if (outputs.isEmpty()) {
+				outputsByInput.remove(input);
+			}
+		}
+	}
+
+	private static void addFiles(final Set<File> results, final Set<String> paths) {
+		for (String path : paths) {
+			results.add(new File(path));
+		}
+	}
+
+	private void index(final String output, final String input) {
+		Set<String> outputs = outputsByInput.get(input);
+		if (outputs == null) {
+			outputs = new HashSet<>();
+			outputsByInput.put(input, outputs);
+		}
+		outputs.add(output);
+	}
+
+	private Map<String, Input> toPaths(final Map<File, Input> inputs) {
+		Map<String, Input> results = new LinkedHashMap<>();
+		for (Map.Entry<File, Input> input : inputs.entrySet()) {
+			results.put(input.getKey().getAbsolutePath(), input.getValue());
+		}
+		return results;
+	}
+
+	private Map<String, String> hashes(final Map<String, Input> inputs) {
+		Map<String, String> results = new LinkedHashMap<>();
+		for (Map.Entry<String, Input> input : inputs.entrySet()) {
+			results.put(input.getKey(), input.getValue().hash);
+		}
+		return results;
+	}
+}
@@ -0,0 +1,203 @@
+package com.keithbranton.mojo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Timings, counts and output sizes for a single build, which can be written as a JSON report, logged as a table and checked against
+ * budgets. It's shared by all the threads of a build, so the time of each phase is the total over all threads.
+ * 
+ * @author Keith Branton
+ */
+public class BuildMetrics {
+	private static class Output {
+		private final String path;
+		private final long bytes;
+		private final boolean written;
+
+		private Output(final String path, final long bytes, final boolean written) {
+			this.path = path;
+			this.bytes = bytes;
+			this.written = written;
+		}
+	}
+
+	private final String goal;
+	private final long started = System.currentTimeMillis();
+	private final long startNanos = System.nanoTime();
+	private long elapsedNanos = -1;
+	private final Map<String, Long> phases = new LinkedHashMap<>();
+	private final Map<String, Long> counters = new LinkedHashMap<>();
+	private final Map<String, Output> outputs = new LinkedHashMap<>();
+	private final List<String> violations = new ArrayList<>();
+
+	/**
+	 * @param goal the goal being measured
+	 * @param phases the phases to report, in order - so they appear even if they took no time
+	 */
+	public BuildMetrics(final String goal, final String... phases) {
+		this.goal = goal;
+		for (String phase : phases) {
+			this.phases.put(phase, 0L);
+		}
+	}
+
+	/**
+	 * @return the time to pass to {@link #time(String, long)} at the end of the phase
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Add the time since start to the phase
+	 */
+	public synchronized void time(final String phase, final long start) {
+		Long total = phases.get(phase);
+		phases.put(phase, (total == null ? 0 : total) + System.nanoTime() - start);
+	}
+
+	public synchronized void count(final String counter, final long delta) {
+		Long total = counters.get(counter);
+		counters.put(counter, (total == null ? 0 : total) + delta);
+	}
+
+	/**
+	 * Record the size of an output, whether or not it was written by this build
+	 */
+	public synchronized void output(final File file, final boolean written) {
+		outputs.put(file.getAbsolutePath(), new Output(file.getAbsolutePath(), file.length(), written));
+	}
+
+	public synchronized boolean hasOutput(final File file) {
+		return outputs.containsKey(file.getAbsolutePath());
+	}
+
+	/**
+	 * Mark the end of the build
+	 */
+	public synchronized void finish() {
+		elapsedNanos = System.nanoTime() - startNanos;
+	}
+
+	public synchronized long getElapsedMillis() {
+		return (elapsedNanos < 0 ? System.nanoTime() - startNanos : elapsedNanos) / 1000000;
+	}
+
+	/**
+	 * Check the outputs and the elapsed time against the budgets - a limit of zero or less means there's no budget
+	 * 
+	 * @param maxOutputSize the largest an output may be, in KB
+	 * @param maxTime the longest the build may take, in milliseconds
+	 * @return a description of each budget that was exceeded
+	 */
+	public synchronized List<String> checkBudgets(final long maxOutputSize, final long maxTime) {
+		violations.clear();
+		if (maxOutputSize > 0) {
+			for (Output output : outputs.values()) {
+				if (output.bytes > maxOutputSize * 1024) {
+					violations.add(output.path + " is " + output.bytes + " bytes, more than the " + maxOutputSize
+							+ "KB allowed by maxOutputSize");
+				}
+			}
+		}
+		if (maxTime > 0 && getElapsedMillis() > maxTime) {
+			violations.add(goal + " took " + getElapsedMillis() + "ms, more than the " + maxTime + "ms allowed by maxTime");
+		}
+		return new ArrayList<>(violations);
+	}
+
+	/**
+	 * @return the phases, counters and outputs as lines of a table
+	 */
+	public synchronized List<String> getSummary() {
+		List<String> lines = new ArrayList<>();
+		lines.add(String.format(Locale.ROOT, "%-24s %12s", "phase", "ms"));
+		for (Map.Entry<String, Long> phase : phases.entrySet()) {
+			lines.add(String.format(Locale.ROOT, "%-24s %12.1f", phase.getKey(), phase.getValue() / 1e6));
+		}
+		lines.add(String.format(Locale.ROOT, "%-24s %12d", "total (elapsed)", getElapsedMillis()));
+		for (Map.Entry<String, Long> counter : counters.entrySet()) {
+			lines.add(String.format(Locale.ROOT, "%-24s %12d", counter.getKey(), counter.getValue()));
+		}
+		for (Output output : outputs.values()) {
+			lines.add(String.format(Locale.ROOT, "%-24s %12d %s", output.written ? "written (bytes)" : "unchanged (bytes)", output.bytes,
+					output.path));
+		}
+		return lines;
+	}
+
+	public synchronized String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"goal\": ").append(quote(goal)).append(",\n");
+		json.append("  \"started\": ").append(started).append(",\n");
+		json.append("  \"elapsedMillis\": ").append(getElapsedMillis()).append(",\n");
+		json.append("  \"phaseMillis\": {");
+		String separator = "\n";
+		for (Map.Entry<String, Long> phase : phases.entrySet()) {
+			json.append(separator).append("    ").append(quote(phase.getKey())).append(": ")
+					.append(String.format(Locale.ROOT, "%.3f", phase.getValue() / 1e6));
+			separator = ",\n";
+		}
+		json.append(separator.equals("\n") ? "},\n" : "\n  },\n");
+		json.append("  \"counters\": {");
+		separator = "\n";
+		for (Map.Entry<String, Long> counter : counters.entrySet()) {
+			json.append(separator).append("    ").append(quote(counter.getKey())).append(": ").append(counter.getValue());
+			separator = ",\n";
+		}
+		json.append(separator.equals("\n") ? "},\n" : "\n  },\n");
+		json.append("  \"outputs\": [");
+		separator = "\n";
+		for (Output output : outputs.values()) {
+			json.append(separator).append("    { \"file\": ").append(quote(output.path)).append(", \"bytes\": ").append(output.bytes)
+					.append(", \"written\": ").append(output.written).append(" }");
+			separator = ",\n";
+		}
+		json.append(separator.equals("\n") ? "],\n" : "\n  ],\n");
+		json.append("  \"budgetViolations\": [");
+		separator = "\n";
+		for (String violation : violations) {
+			json.append(separator).append("    ").append(quote(violation));
+			separator = ",\n";
+		}
+		json.append(separator.equals("\n") ? "]\n" : "\n  ]\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Write the JSON report, replacing any previous one
+	 */
+	public void writeReport(final File report) throws IOException {
+		report.getAbsoluteFile().getParentFile().mkdirs();
+		try (BufferedWriter writer = Files.newWriter(report, Charsets.UTF_8)) {
+			writer.write(toJson());
+		}
+	}
+
+	static String quote(final String value) {
+		StringBuilder result = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				result.append('\\').append(c);
+			} else if (c < ' ') {
+				result.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			} else {
+				result.append(c);
+			}
+		}
+		return result.append('"').toString();
+	}
+}
@@ -0,0 +1,319 @@
+package com.keithbranton.mojo;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A writer that strips the comments and the whitespace that isn't needed from the javascript written to it, in a single pass as it is
+ * written. It doesn't rename or rewrite anything, so it is cheap and safe rather than thorough.
+ *
+ * Strings, template literals and regular expression literals are copied exactly, apart from the code in the substitutions of a template
+ * literal, which is compacted like any other. Whether a / starts a regular expression or is a
+ * division is decided from the token before it, the same way JSMin does. A run of whitespace becomes a single space only where the
+ * tokens either side would otherwise run together, and a line break is kept unless the characters either side show that automatic
+ * semicolon insertion can't depend on it. Comments starting with /*! are kept, as they usually hold licences.
+ *
+ * @author Keith Branton
+ */
+public class Compactor extends Writer {
+	private enum Mode {
+		CODE, STRING, REGEX, LINE_COMMENT, BLOCK_COMMENT, KEPT_COMMENT
+	}
+
+	// a line break after one of these, or before one of the next, can't end a statement
+	private static final String CONTINUES_AFTER = "{([,;=:?&|!~*%<>^.";
+	private static final String CONTINUES_BEFORE = "})],;=:?*%<>^&|";
+	// a / after one of these starts a regular expression
+	private static final String REGEX_AFTER = "(,=:[!&|?{};+-*%<>~^/";
+	private static final String[] REGEX_KEYWORDS = { "return", "typeof", "case", "do", "else", "in", "instanceof", "new", "delete",
+			"void", "throw", "yield" };
+
+	private final Writer out;
+	private final char[] buffer = new char[8192];
+	private int buffered;
+	private Mode mode = Mode.CODE;
+	private char quote;
+	private boolean escaped;
+	private boolean inClass;
+	private boolean slash;
+	private boolean star;
+	private boolean commentStart;
+	private boolean space;
+	private boolean newline;
+	private boolean blockNewline;
+	// the last character of code written, and the identifier or number it ends, if any
+	private char last;
+	private final StringBuilder word = new StringBuilder();
+	private boolean afterRegex;
+	private boolean dollar;
+	// the depth of braces in the code, and the depth at which each template literal substitution it is in started
+	private int braces;
+	private final Deque<Integer> substitutions = new ArrayDeque<>();
+	private long bytesIn;
+	private long bytesOut;
+
+	public Compactor(final Writer out) {
+		this.out = out;
+	}
+
+	/**
+	 * @return the number of bytes, encoded as UTF-8, that have been removed so far
+	 */
+	public long getBytesRemoved() {
+		return bytesIn - bytesOut;
+	}
+
+	@Override
+	public void write(final char[] cbuf, final int off, final int len) throws IOException {
+		for (int i = off; i < off + len; i++) {
+			accept(cbuf[i]);
+		}
+	}
+
+	@Override
+	public void write(final String str, final int off, final int len) throws IOException {
+		for (int i = off; i < off + len; i++) {
+			accept(str.charAt(i));
+		}
+	}
+
+	@Override
+	public void write(final int c) throws IOException {
+		accept((char) c);
+	}
+
+	private void accept(final char c) throws IOException {
+		bytesIn += utf8Length(c);
+		switch (mode) {
+		case STRING:
+			string(c);
+			return;
+		case REGEX:
+			regex(c);
+			return;
+		case LINE_COMMENT:
+			if (isLineBreak(c)) {
+				mode = Mode.CODE;
+				newline = true;
+			}
+			return;
+		case BLOCK_COMMENT:
+			if (commentStart) {
+				commentStart = false;
+				if (c == '!') {
+					mode = Mode.KEPT_COMMENT;
+					separate('/');
+					raw('/');
+					raw('*');
+					raw('!');
+					return;
+				}
+			}
+			blockNewline |= isLineBreak(c);
+			if (star && c == '/') {
+				mode = Mode.CODE;
+				// a comment separates tokens just as whitespace does
+				newline |= blockNewline;
+				space = true;
+			}
+			star = c == '*';
+			return;
+		case KEPT_COMMENT:
+			raw(c);
+			if (star && c == '/') {
+				mode = Mode.CODE;
+				// so that the code after it starts on a new line
+				last = '/';
+				word.setLength(0);
+			}
+			star = c == '*';
+			return;
+		default:
+			code(c);
+		}
+	}
+
+	private void code(final char c) throws IOException {
+		if (slash) {
+			slash = false;
+			if (c == '/') {
+				mode = Mode.LINE_COMMENT;
+				return;
+			}
+			if (c == '*') {
+				mode = Mode.BLOCK_COMMENT;
+				commentStart = true;
+				star = false;
+				blockNewline = false;
+				return;
+			}
+			boolean regex = isRegexAllowed();
+			token('/');
+			if (regex) {
+				mode = Mode.REGEX;
+				escaped = false;
+				inClass = false;
+				regex(c);
+				return;
+			}
+		}
+		if (isLineBreak(c)) {
+			newline = true;
+		} else if (Character.isWhitespace(c) || c == '\u00a0' || c == '\ufeff') {
+			space = true;
+		} else if (c == '/') {
+			slash = true;
+		} else if (c == '"' || c == '\'' || c == '`') {
+			token(c);
+			mode = Mode.STRING;
+			quote = c;
+			escaped = false;
+			dollar = false;
+		} else if (c == '}' && !substitutions.isEmpty() && substitutions.peek() == braces) {
+			// back into the template literal
+			substitutions.pop();
+			token(c);
+			mode = Mode.STRING;
+			quote = '`';
+			escaped = false;
+			dollar = false;
+		} else {
+			token(c);
+			if (c == '{') {
+				braces++;
+			} else if (c == '}') {
+				braces--;
+			}
+		}
+	}
+
+	private void string(final char c) throws IOException {
+		raw(c);
+		boolean wasDollar = dollar;
+		dollar = false;
+		if (escaped) {
+			escaped = false;
+		} else if (c == '\\') {
+			escaped = true;
+		} else if (c == quote || (c == '\n' || c == '\r') && quote != '`') {
+			// a line break means it wasn't really a string - carry on as code rather than swallow the rest of the file
+			mode = Mode.CODE;
+			last = c;
+		} else if (c == '$') {
+			dollar = true;
+		} else if (c == '{' && wasDollar && quote == '`') {
+			mode = Mode.CODE;
+			substitutions.push(braces);
+			last = c;
+			word.setLength(0);
+		}
+	}
+
+	private void regex(final char c) throws IOException {
+		raw(c);
+		if (escaped) {
+			escaped = false;
+		} else if (c == '\\') {
+			escaped = true;
+		} else if (c == '[') {
+			inClass = true;
+		} else if (c == ']') {
+			inClass = false;
+		} else if (c == '/' && !inClass || isLineBreak(c)) {
+			mode = Mode.CODE;
+			last = c;
+			afterRegex = c == '/';
+		}
+	}
+
+	/**
+	 * Write a character of code, preceded by whatever the whitespace before it has to be reduced to
+	 */
+	private void token(final char c) throws IOException {
+		separate(c);
+		raw(c);
+		if (isWordChar(c)) {
+			word.append(c);
+		} else {
+			word.setLength(0);
+		}
+		last = c;
+		afterRegex = false;
+	}
+
+	private void separate(final char next) throws IOException {
+		if ((space || newline) && last != 0) {
+			if (newline && CONTINUES_AFTER.indexOf(last) < 0 && CONTINUES_BEFORE.indexOf(next) < 0) {
+				raw('\n');
+			} else if (needsSpace(next)) {
+				raw(' ');
+			}
+		}
+		space = false;
+		newline = false;
+	}
+
+	private boolean needsSpace(final char next) {
+		return isWordChar(last) && isWordChar(next) || (last == '+' || last == '-') && next == last || last == '/'
+				&& (next == '/' || next == '*' || afterRegex && isWordChar(next)) || Character.isDigit(last) && next == '.';
+	}
+
+	private boolean isRegexAllowed() {
+		if (last == 0) {
+			return true;
+		}
+		if (isWordChar(last)) {
+			for (String keyword : REGEX_KEYWORDS) {
+				if (word.length() == keyword.length() && keyword.contentEquals(word)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return REGEX_AFTER.indexOf(last) >= 0 && !afterRegex;
+	}
+
+	private void raw(final char c) throws IOException {
+		bytesOut += utf8Length(c);
+		if (buffered == buffer.length) {
+			out.write(buffer, 0, buffered);
+			buffered = 0;
+		}
+		buffer[buffered++] = c;
+	}
+
+	private static boolean isWordChar(final char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '$' || c == '\\' || c >= 0x80;
+	}
+
+	private static boolean isLineBreak(final char c) {
+		return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029';
+	}
+
+	private static int utf8Length(final char c) {
+		// each half of a surrogate pair counts for half of its four bytes
+		return c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.write(buffer, 0, buffered);
+		buffered = 0;
+		out.flush();
+	}
+
+	/**
+	 * Finish off the output - anything still pending is written - and close the writer underneath
+	 */
+	@Override
+	public void close() throws IOException {
+		if (slash) {
+			slash = false;
+			token('/');
+		}
+		flush();
+		out.close();
+	}
+}
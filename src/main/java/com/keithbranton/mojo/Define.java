@@ -0,0 +1,291 @@
+package com.keithbranton.mojo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The location of the parts of an AMD module of the form <code>define([ deps ], function(params) { body });</code>
+ * 
+ * The header is found by a single forward scan that stops at the opening brace of the function, and the trailer by a backward scan from
+ * the end, so the time taken is proportional to the size of the header and trailer, not of the body. Comments and string literals in
+ * the dependency array are handled.
+ * 
+ * It is given the text the content cache has already loaded rather than reading the file itself - the hash, the splice and finding the
+ * angular module all need the whole text anyway - but only the characters of the header and trailer are looked at.
+ * 
+ * @author Keith Branton
+ */
+public class Define {
+	private final CharSequence contents;
+	private final List<String> dependencies;
+	private final List<String> parameters;
+	private final int headerStart;
+	private final int bodyStart;
+	private final int bodyEnd;
+	private final boolean trailer;
+
+	private Define(final CharSequence contents, final List<String> dependencies, final List<String> parameters, final int headerStart, final int bodyStart,
+			final int bodyEnd, final boolean trailer) {
+		this.contents = contents;
+		this.dependencies = Collections.unmodifiableList(dependencies);
+		this.parameters = Collections.unmodifiableList(parameters);
+		this.headerStart = headerStart;
+		this.bodyStart = bodyStart;
+		this.bodyEnd = bodyEnd;
+		this.trailer = trailer;
+	}
+
+	/**
+	 * @return the contents that were parsed - all offsets refer to this
+	 */
+	public CharSequence getContents() {
+		return contents;
+	}
+
+	/**
+	 * @return the dependencies declared in the array, with any quotes removed
+	 */
+	public List<String> getDependencies() {
+		return dependencies;
+	}
+
+	/**
+	 * @return the names of the parameters of the function
+	 */
+	public List<String> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * @return the offset of the define keyword - anything before it is whitespace or comments
+	 */
+	public int getHeaderStart() {
+		return headerStart;
+	}
+
+	/**
+	 * @return the offset just after the opening brace of the function
+	 */
+	public int getBodyStart() {
+		return bodyStart;
+	}
+
+	/**
+	 * @return the offset of the whitespace preceding the closing <code>})</code> - or the end of the contents if there is no trailer
+	 */
+	public int getBodyEnd() {
+		return bodyEnd;
+	}
+
+	/**
+	 * @return true if the contents end with the closing <code>});</code> of the define
+	 */
+	public boolean hasTrailer() {
+		return trailer;
+	}
+
+	/**
+	 * @return the parsed define, or null if the contents do not start with a define of the expected form
+	 */
+	public static Define parse(final CharSequence contents) {
+		return new Parser(contents).parse();
+	}
+
+	private static class Parser {
+		private final CharSequence in;
+		private final int length;
+		private int pos;
+
+		private Parser(final CharSequence in) {
+			this.in = in;
+			this.length = in.length();
+		}
+
+		private Define parse() {
+			skip();
+			int headerStart = pos;
+			if (!keyword("define") || !expect('(') || !expect('[')) {
+				return null;
+			}
+
+			// the dependency array
+			List<String> dependencies = new ArrayList<>();
+			StringBuilder token = new StringBuilder();
+			while (true) {
+				skip();
+				if (pos >= length) {
+					return null;
+				}
+				char c = in.charAt(pos);
+				if (c == ']' || c == ',') {
+					pos++;
+					if (token.length() > 0) {
+						dependencies.add(token.toString().trim());
+						token.setLength(0);
+					}
+					if (c == ']') {
+						break;
+					}
+				} else if (c == '\'' || c == '"') {
+					int end = endOfString(pos);
+					if (end < 0) {
+						return null;
+					}
+					token.append(in, pos + 1, end - 1);
+					pos = end;
+				} else {
+					while (pos < length && !isDelimiter(pos)) {
+						token.append(in.charAt(pos++));
+					}
+				}
+			}
+
+			if (!expect(',') || !keyword("function")) {
+				return null;
+			}
+			skip();
+			// an optional function name
+			while (pos < length && Character.isJavaIdentifierPart(in.charAt(pos))) {
+				pos++;
+			}
+			if (!expect('(')) {
+				return null;
+			}
+
+			// the parameters
+			List<String> parameters = new ArrayList<>();
+			while (true) {
+				skip();
+				if (pos >= length) {
+					return null;
+				}
+				char c = in.charAt(pos);
+				if (c == ')' || c == ',') {
+					pos++;
+					if (token.length() > 0) {
+						parameters.add(token.toString());
+						token.setLength(0);
+					}
+					if (c == ')') {
+						break;
+					}
+				} else if (Character.isJavaIdentifierPart(c)) {
+					token.append(c);
+					pos++;
+				} else {
+					return null;
+				}
+			}
+
+			if (!expect('{')) {
+				return null;
+			}
+			int bodyStart = pos;
+
+			// now work backwards from the end looking for } ) ;
+			int end = skipWhitespaceBackwards(length, bodyStart);
+			if (end > bodyStart && in.charAt(end - 1) == ';') {
+				end = skipWhitespaceBackwards(end - 1, bodyStart);
+			}
+			if (end > bodyStart && in.charAt(end - 1) == ')') {
+				end = skipWhitespaceBackwards(end - 1, bodyStart);
+				if (end > bodyStart && in.charAt(end - 1) == '}') {
+					return new Define(in, dependencies, parameters, headerStart, bodyStart, skipWhitespaceBackwards(end - 1, bodyStart), true);
+				}
+			}
+			return new Define(in, dependencies, parameters, headerStart, bodyStart, length, false);
+		}
+
+		private boolean isDelimiter(final int i) {
+			char c = in.charAt(i);
+			return c == ',' || c == ']' || c == '\'' || c == '"' || Character.isWhitespace(c) || c == '/' && i + 1 < length
+					&& (in.charAt(i + 1) == '/' || in.charAt(i + 1) == '*');
+		}
+
+		private int skipWhitespaceBackwards(final int from, final int limit) {
+			int result = from;
+			while (result > limit && Character.isWhitespace(in.charAt(result - 1))) {
+				result--;
+			}
+			return result;
+		}
+
+		/**
+		 * @return the offset just past the closing quote of the string starting at start, or -1 if it isn't terminated
+		 */
+		private int endOfString(final int start) {
+			char quote = in.charAt(start);
+			for (int i = start + 1; i < length; i++) {
+				char c = in.charAt(i);
+				if (c == '\\') {
+					i++;
+				} else if (c == quote) {
+					return i + 1;
+				} else if (c == '\n') {
+					return -1;
+				}
+			}
+			return -1;
+		}
+
+		private boolean keyword(final String word) {
+			skip();
+			int end = pos + word.length();
+			if (end > length) {
+				return false;
+			}
+			for (int i = 0; i < word.length(); i++) {
+				if (in.charAt(pos + i) != word.charAt(i)) {
+					return false;
+				}
+			}
+			if (end < length && Character.isJavaIdentifierPart(in.charAt(end))) {
+				return false;
+			}
+			pos = end;
+			return true;
+		}
+
+		private boolean expect(final char c) {
+			skip();
+			if (pos < length && in.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * skip whitespace and comments
+		 */
+		private void skip() {
+			while (pos < length) {
+				char c = in.charAt(pos);
+				if (Character.isWhitespace(c)) {
+					pos++;
+				} else if (c == '/' && pos + 1 < length && in.charAt(pos + 1) == '/') {
+					while (pos < length && in.charAt(pos) != '\n') {
+						pos++;
+					}
+				} else if (c == '/' && pos + 1 < length && in.charAt(pos + 1) == '*') {
+					pos = endOfComment(pos + 2);
+				} else {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * @return the offset just past the end of the block comment whose contents start at from
+		 */
+		private int endOfComment(final int from) {
+			for (int i = from; i + 1 < length; i++) {
+				if (in.charAt(i) == '*' && in.charAt(i + 1) == '/') {
+					return i + 2;
+				}
+			}
+			return length;
+		}
+	}
+}
@@ -0,0 +1,369 @@
+package com.keithbranton.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Utf8;
+import com.google.common.io.Files;
+
+/**
+ * Holds the (trimmed) contents of source files so that a file shared by many modules is only read and decoded once. Entries are keyed
+ * by canonical path, are discarded if the size or modification time of the file changes, and the least recently used entries are
+ * evicted once the configured memory limit is reached.
+ * 
+ * The contents themselves are held in a {@link Store}, which can be shared by several caches - and so by several builds - while each
+ * cache counts its own hits and misses. Only one thread reads a file at a time - any others that want it wait for it to be read. A file
+ * that is modified while it is being read isn't cached.
+ * 
+ * @author Keith Branton
+ */
+public class FileContentCache {
+	/**
+	 * The contents of a single file, along with the things derived from them
+	 */
+	public static class Content {
+		private final File file;
+		private final String text;
+		private final long length;
+		private final long lastModified;
+		private final int leading;
+		private final boolean exact;
+		private String hash;
+		private Define define;
+		private boolean parsed;
+
+		private Content(final File file, final String raw, final long length, final long lastModified) {
+			this.file = file;
+			this.text = raw.trim();
+			this.length = length;
+			this.lastModified = lastModified;
+			this.leading = leading(raw);
+			this.exact = isExact(raw, length);
+		}
+
+		private static int leading(final String raw) {
+			int result = 0;
+			while (result < raw.length() && raw.charAt(result) <= ' ') {
+				result++;
+			}
+			return result;
+		}
+
+		/**
+		 * trim() only removes characters that encode to a single byte, so the text maps straight back onto the bytes of the file as long
+		 * as decoding didn't replace anything
+		 */
+		private static boolean isExact(final String raw, final long length) {
+			try {
+				return Utf8.encodedLength(raw) == length;
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return the size of the file when it was read
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * @return the modification time of the file when it was read
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return the contents of the file, decoded as UTF-8 and trimmed
+		 */
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * @return a hash of the text
+		 */
+		public synchronized String getHash() {
+			if (hash == null) {
+				hash = BuildCache.hash(text);
+			}
+			return hash;
+		}
+
+		/**
+		 * @return the define at the start of the text, or null if it doesn't start with one
+		 */
+		public synchronized Define getDefine() {
+			if (!parsed) {
+				define = Define.parse(text);
+				parsed = true;
+			}
+			return define;
+		}
+
+		/**
+		 * @return the position in the file of the byte that the character at index of the text starts at, or -1 if the text can't be
+		 *         mapped back onto the file - because it wasn't valid UTF-8 or it has changed since it was read
+		 */
+		public long getByteOffset(final int index) {
+			if (!exact || file.length() != length || file.lastModified() != lastModified) {
+				return -1;
+			}
+			return leading + getByteLength(0, index);
+		}
+
+		/**
+		 * @return the number of bytes the characters of the text between start (inclusive) and end (exclusive) encode to
+		 */
+		public long getByteLength(final int start, final int end) {
+			long result = 0;
+			for (int i = start; i < end; i++) {
+				char c = text.charAt(i);
+				if (c < 0x80) {
+					result++;
+				} else if (c < 0x800) {
+					result += 2;
+				} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+					result += 4;
+					i++;
+				} else {
+					result += 3;
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * The contents held for one or more caches, least recently used first
+	 */
+	public static class Store {
+		private long maxBytes;
+		private final Map<String, Content> entries = new LinkedHashMap<>(16, 0.75f, true);
+		// the files being read, so that a file wanted by several threads at once is only read once
+		private final ConcurrentMap<String, FutureTask<Content>> loading = new ConcurrentHashMap<>();
+		private long bytes;
+
+		/**
+		 * @param maxBytes the approximate amount of memory the contents may use
+		 */
+		public Store(final long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		/**
+		 * Raise the amount of memory the contents may use, if it is less than maxBytes
+		 */
+		public synchronized void ensureCapacity(final long maxBytes) {
+			this.maxBytes = Math.max(this.maxBytes, maxBytes);
+		}
+
+		private synchronized Content get(final String key, final long length, final long lastModified) {
+			Content content = entries.get(key);
+			return content != null && content.length == length && content.lastModified == lastModified ? content : null;
+		}
+
+		/**
+		 * @return the number of entries evicted to make room
+		 */
+		private synchronized int put(final String key, final Content content) {
+			Content previous = entries.put(key, content);
+			if (previous != null) {
+				bytes -= size(previous);
+			}
+			bytes += size(content);
+			int evictions = 0;
+			Iterator<Content> eldest = entries.values().iterator();
+			while (bytes > maxBytes && eldest.hasNext()) {
+				Content evicted = eldest.next();
+				if (evicted == content) {
+					// never evict the entry we're about to return, even if it alone exceeds the limit
+					continue;
+				}
+				eldest.remove();
+				bytes -= size(evicted);
+				evictions++;
+			}
+			return evictions;
+		}
+
+		private synchronized void remove(final String key) {
+			Content removed = entries.remove(key);
+			if (removed != null) {
+				bytes -= size(removed);
+			}
+		}
+
+		private long size(final Content content) {
+			return content.text.length() * 2L;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return entries.size() + " files (" + bytes / 1024 + "KB) held";
+		}
+	}
+
+	private final Store store;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private volatile BuildMetrics metrics;
+
+	/**
+	 * @param maxBytes the approximate amount of memory the cached contents may use
+	 */
+	public FileContentCache(final long maxBytes) {
+		this(new Store(maxBytes));
+	}
+
+	/**
+	 * @param store where the contents are held, which may be shared with other caches
+	 */
+	public FileContentCache(final Store store) {
+		this.store = store;
+	}
+
+	/**
+	 * @param metrics where to record the reads and cache hits of the current build, or null
+	 */
+	public void setMetrics(final BuildMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the contents of the file, decoded as UTF-8 and trimmed
+	 */
+	public String get(final File file) throws IOException {
+		return getContent(file).getText();
+	}
+
+	/**
+	 * @return a hash of the trimmed contents of the file
+	 */
+	public String getHash(final File file) throws IOException {
+		return getContent(file).getHash();
+	}
+
+	/**
+	 * @return the define at the start of the file, or null if it doesn't start with one
+	 */
+	public Define getDefine(final File file) throws IOException {
+		return getContent(file).getDefine();
+	}
+
+	public Content getContent(final File file) throws IOException {
+		final String key = file.getCanonicalPath();
+		final long length = file.length();
+		final long lastModified = file.lastModified();
+		Content cached = store.get(key, length, lastModified);
+		if (cached == null) {
+			FutureTask<Content> load = new FutureTask<>(new Callable<Content>() {
+				@Override
+				public Content call() throws IOException {
+					return read(file, key, length, lastModified);
+				}
+			});
+			FutureTask<Content> loading = store.loading.putIfAbsent(key, load);
+			if (loading == null) {
+				try {
+					load.run();
+					return get(load);
+				} finally {
+					store.loading.remove(key, load);
+				}
+			}
+			// another thread is reading it - which will do unless the file has been modified since that thread looked at it
+			cached = get(loading);
+			if (cached.length != length || cached.lastModified != lastModified) {
+				return read(file, key, length, lastModified);
+			}
+		}
+		synchronized (this) {
+			hits++;
+		}
+		BuildMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.count("contentCacheHits", 1);
+		}
+		return cached;
+	}
+
+	/**
+	 * Read the file and hold on to its contents - unless its size or modification time have changed since they were taken, in which
+	 * case the contents may not go with them
+	 */
+	private Content read(final File file, final String key, final long length, final long lastModified) throws IOException {
+		synchronized (this) {
+			misses++;
+		}
+		BuildMetrics metrics = this.metrics;
+		long start = System.nanoTime();
+		Content content = new Content(file, Files.toString(file, Charsets.UTF_8), length, lastModified);
+		if (metrics != null) {
+			metrics.time("read", start);
+			metrics.count("filesRead", 1);
+			metrics.count("bytesRead", length);
+		}
+		if (file.length() == length && file.lastModified() == lastModified) {
+			int evicted = store.put(key, content);
+			synchronized (this) {
+				evictions += evicted;
+			}
+		}
+		return content;
+	}
+
+	private static Content get(final FutureTask<Content> load) throws IOException {
+		try {
+			return load.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a file to be read", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Forget the contents of a file that won't be needed again, to make room for the ones that will
+	 */
+	public void release(final File file) throws IOException {
+		store.remove(file.getCanonicalPath());
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return hits + " hits, " + misses + " misses, " + evictions + " evictions, " + store;
+	}
+}
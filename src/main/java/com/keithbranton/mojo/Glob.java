@@ -0,0 +1,208 @@
+package com.keithbranton.mojo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An ant style path pattern - <code>*</code> and <code>?</code> within a path segment and <code>**</code> for any number of segments -
+ * compiled once into a list of segment matchers and matched by simulating the resulting automaton one path segment at a time.
+ * 
+ * The semantics are those of the plexus SelectorUtils.matchPath, which the scanners use: / and the platform's separator separate the
+ * segments of a pattern (so in a pattern a \ is just another character on unix), a pattern ending in a separator has ** appended, empty
+ * segments are ignored, and a pattern only matches a path if both or neither start with a separator. Instances are immutable and so can
+ * be shared between threads.
+ * 
+ * @author Keith Branton
+ */
+public class Glob {
+	private static final int ANY_SEGMENTS = 0;
+	private static final int LITERAL = 1;
+	private static final int WILDCARD = 2;
+
+	private final String pattern;
+	private final boolean absolute;
+	private final String[] segments;
+	private final int[] types;
+
+	private Glob(final String pattern, final boolean absolute, final String[] segments, final int[] types) {
+		this.pattern = pattern;
+		this.absolute = absolute;
+		this.segments = segments;
+		this.types = types;
+	}
+
+	public static Glob compile(final String pattern) {
+		String normalized = pattern.trim();
+		if (!normalized.isEmpty() && isSeparator(normalized.charAt(normalized.length() - 1))) {
+			normalized += "**";
+		}
+		List<String> segments = split(normalized);
+		int[] types = new int[segments.size()];
+		for (int i = 0; i < types.length; i++) {
+			String segment = segments.get(i);
+			if (segment.equals("**")) {
+				types[i] = ANY_SEGMENTS;
+			} else if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0) {
+				types[i] = WILDCARD;
+			} else {
+				types[i] = LITERAL;
+			}
+		}
+		return new Glob(pattern, isAbsolute(normalized), segments.toArray(new String[types.length]), types);
+	}
+
+	public static Glob[] compile(final String[] patterns) {
+		Glob[] results = new Glob[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			results[i] = compile(patterns[i]);
+		}
+		return results;
+	}
+
+	/**
+	 * Split a path into its non-empty segments, using / or the platform's separator
+	 */
+	public static List<String> split(final String path) {
+		return split(path, false);
+	}
+
+	/**
+	 * @param backslash true to also split at every \, whatever the platform's separator
+	 */
+	private static List<String> split(final String path, final boolean backslash) {
+		List<String> results = new ArrayList<>();
+		int start = 0;
+		for (int i = 0; i <= path.length(); i++) {
+			if (i == path.length() || isSeparator(path.charAt(i)) || backslash && path.charAt(i) == '\\') {
+				if (i > start) {
+					results.add(path.substring(start, i));
+				}
+				start = i + 1;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @return true if any of the globs match the path - like matchPath, a path with a \ in it is tried both as it is and with the \ as
+	 *         a separator
+	 */
+	public static boolean matchesAny(final Glob[] globs, final String path) {
+		if (globs.length == 0) {
+			return false;
+		}
+		if (matchesAny(globs, split(path), isAbsolute(path))) {
+			return true;
+		}
+		return File.separatorChar != '\\' && path.indexOf('\\') >= 0
+				&& matchesAny(globs, split(path, true), path.startsWith("/") || path.startsWith("\\"));
+	}
+
+	private static boolean matchesAny(final Glob[] globs, final List<String> segments, final boolean absolute) {
+		for (Glob glob : globs) {
+			if (glob.matches(segments, absolute)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean matches(final String path) {
+		return matchesAny(new Glob[] { this }, path);
+	}
+
+	private static boolean isSeparator(final char c) {
+		return c == '/' || c == File.separatorChar;
+	}
+
+	private static boolean isAbsolute(final String path) {
+		return !path.isEmpty() && isSeparator(path.charAt(0));
+	}
+
+	/**
+	 * @param path the non-empty segments of the path
+	 * @param absolutePath true if the path started with a separator
+	 */
+	public boolean matches(final List<String> path, final boolean absolutePath) {
+		if (absolute != absolutePath) {
+			return false;
+		}
+		// the set of pattern positions the automaton could be in - position n means the whole pattern has been matched
+		int n = segments.length;
+		boolean[] states = new boolean[n + 1];
+		boolean[] next = new boolean[n + 1];
+		states[0] = true;
+		close(states);
+		for (String segment : path) {
+			boolean any = false;
+			for (int i = 0; i <= n; i++) {
+				next[i] = false;
+			}
+			for (int i = 0; i < n; i++) {
+				if (!states[i]) {
+					continue;
+				}
+				if (types[i] == ANY_SEGMENTS) {
+					next[i] = true;
+					any = true;
+				} else if (types[i] == LITERAL ? segments[i].equals(segment) : wildcardMatches(segments[i], segment)) {
+					next[i + 1] = true;
+					any = true;
+				}
+			}
+			if (!any) {
+				return false;
+			}
+			boolean[] swap = states;
+			states = next;
+			next = swap;
+			close(states);
+		}
+		return states[n];
+	}
+
+	/**
+	 * ** can match no segments at all, so being before one also means being after it
+	 */
+	private void close(final boolean[] states) {
+		for (int i = 0; i < segments.length; i++) {
+			if (states[i] && types[i] == ANY_SEGMENTS) {
+				states[i + 1] = true;
+			}
+		}
+	}
+
+	/**
+	 * Match a single segment against a pattern containing * and ?, backtracking only to the most recent *
+	 */
+	private static boolean wildcardMatches(final String pattern, final String text) {
+		int p = 0;
+		int t = 0;
+		int star = -1;
+		int mark = 0;
+		while (t < text.length()) {
+			if (p < pattern.length() && pattern.charAt(p) == '*') {
+				star = p++;
+				mark = t;
+			} else if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == text.charAt(t))) {
+				p++;
+				t++;
+			} else if (star >= 0) {
+				p = star + 1;
+				t = ++mark;
+			} else {
+				return false;
+			}
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*') {
+			p++;
+		}
+		return p == pattern.length();
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+}
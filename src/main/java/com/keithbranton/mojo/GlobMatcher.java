@@ -1,57 +1,82 @@
 package com.keithbranton.mojo;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.codehaus.plexus.util.AbstractScanner;
-
+/**
+ * Matches files against a set of globs that are relative to a base directory. The globs are compiled once, and matchers are immutable
+ * so they are cached and shared per base directory and set of globs.
+ */
 public class GlobMatcher {
-	private static class GlobScanner extends AbstractScanner {
-		private GlobScanner(final String[] globs) {
-			setIncludes(globs);
-		}
-
-		@Override
-		public void scan() {
-			throw new UnsupportedOperationException();
-		}
+	private static final int MAX_CACHED = 64;
+	private static final ConcurrentMap<String, GlobMatcher> CACHE = new ConcurrentHashMap<>();
 
-		@Override
-		public String[] getIncludedFiles() {
-			throw new UnsupportedOperationException();
-		}
+	private final String absolutedir;
+	private final Glob[] globs;
 
-		@Override
-		public String[] getIncludedDirectories() {
-			throw new UnsupportedOperationException();
-		}
+	public GlobMatcher(final File absolutedir, final String[] globs) {
+		this.absolutedir = absolutedir.getAbsolutePath();
+		this.globs = Glob.compile(globs);
+	}
 
-		@Override
-		public File getBasedir() {
-			throw new UnsupportedOperationException();
+	/**
+	 * @return a shared matcher for the base directory and globs
+	 */
+	public static GlobMatcher get(final File absolutedir, final String[] globs) {
+		String key = absolutedir.getAbsolutePath() + File.pathSeparator + Arrays.toString(globs);
+		GlobMatcher result = CACHE.get(key);
+		if (result == null) {
+			if (CACHE.size() >= MAX_CACHED) {
+				CACHE.clear();
+			}
+			result = new GlobMatcher(absolutedir, globs);
+			GlobMatcher existing = CACHE.putIfAbsent(key, result);
+			if (existing != null) {
+				result = existing;
+			}
 		}
+		return result;
+	}
 
-		public boolean matches(final String name) {
-			// System.out.println("Glob Testing " + name);
-			return isIncluded(name);
+	/**
+	 * @return true if the file matches - files under the base directory are matched by their path relative to it, prefixed with /
+	 */
+	public boolean matches(final File file) {
+		String path = file.getAbsolutePath();
+		if (path.startsWith(absolutedir + File.separator)) {
+			path = path.substring(absolutedir.length());
 		}
+		return matches(path);
 	}
 
-	private final String relativedir;
-	private final String absolutedir;
-	private final GlobScanner globScanner;
-
-	public GlobMatcher(final File absolutedir, final File relativedir, final String[] globs) {
-		this.absolutedir = absolutedir.getAbsolutePath();
-		this.relativedir = relativedir.getAbsolutePath() + "/";
-		// System.out.println("absolutedir: " + this.absolutedir + ", relativedir: " + this.relativedir);
-		globScanner = new GlobScanner(globs);
+	/**
+	 * @param path a path that has already been made relative to the base directory, e.g. /js/first/firstModule.js
+	 */
+	public boolean matches(final String path) {
+		return Glob.matchesAny(globs, path);
 	}
 
-	public boolean matches(final File file) {
-		return globScanner.matches(file.getAbsolutePath().replace(absolutedir, "/"));
+	/**
+	 * @param segments the non-empty segments of a relative path
+	 * @param absolute true if the relative path starts with a separator
+	 */
+	public boolean matches(final List<String> segments, final boolean absolute) {
+		for (Glob glob : globs) {
+			if (glob.matches(segments, absolute)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
-	public File makeFile(final String name) {
-		return new File((name.startsWith("/") ? absolutedir : relativedir) + name);
+	/**
+	 * @return the file a dependency name refers to - names starting with / are relative to the base directory, anything else is relative
+	 *         to relativedir
+	 */
+	public File makeFile(final File relativedir, final String name) {
+		return new File((name.startsWith("/") ? absolutedir : relativedir.getAbsolutePath() + "/") + name);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,152 @@
+package com.keithbranton.mojo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Copies of generated files named by a hash of their content - e.g. firstModule.3f9a1c2b.js for firstModule.js - so they can be cached
+ * by browsers forever, and a JSON manifest that maps the path of each generated file to the path of its copy, both relative to a base
+ * folder. The manifest is kept between builds so that the copies of files that haven't changed don't need to be read.
+ * 
+ * @author Keith Branton
+ */
+public class HashManifest {
+	private static final int HASH_LENGTH = 8;
+	private static final Pattern ENTRY = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+	private final File file;
+	private final File baseDir;
+	private final Map<String, String> names = new TreeMap<>();
+	private final OutputWriter outputWriter = new OutputWriter();
+
+	/**
+	 * @param file where the manifest is written
+	 * @param baseDir the folder the paths in the manifest are relative to
+	 */
+	public HashManifest(final File file, final File baseDir) {
+		this.file = file;
+		this.baseDir = baseDir;
+	}
+
+	/**
+	 * @return the name with the hash inserted before its extension
+	 */
+	public static String hashedName(final String name, final String hash) {
+		int dot = name.lastIndexOf('.');
+		return dot <= 0 ? name + "." + hash : name.substring(0, dot) + "." + hash + name.substring(dot);
+	}
+
+	/**
+	 * Read the manifest from disk. A missing or unreadable manifest just means every copy is made again
+	 */
+	public synchronized void load() {
+		names.clear();
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			Matcher matcher = ENTRY.matcher(Files.toString(file, Charsets.UTF_8));
+			while (matcher.find()) {
+				names.put(unquote(matcher.group(1)), unquote(matcher.group(2)));
+			}
+		} catch (IOException e) {
+			names.clear();
+		}
+	}
+
+	public synchronized void save() throws IOException {
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		try (BufferedWriter writer = Files.newWriter(file, Charsets.UTF_8)) {
+			writer.write("{");
+			String separator = "\n";
+			for (Map.Entry<String, String> name : names.entrySet()) {
+				writer.write(separator + "  " + BuildMetrics.quote(name.getKey()) + ": " + BuildMetrics.quote(name.getValue()));
+				separator = ",\n";
+			}
+			writer.write(separator.equals("\n") ? "}\n" : "\n}\n");
+		}
+	}
+
+	/**
+	 * @return the hashed copy of the output recorded in the manifest, or null if there isn't one or it no longer exists
+	 */
+	public synchronized File get(final File output) {
+		String hashed = names.get(relativize(output));
+		if (hashed == null) {
+			return null;
+		}
+		File result = new File(baseDir, hashed);
+		return result.isFile() ? result : null;
+	}
+
+	/**
+	 * @return the path of the hashed copy of the output relative to the base folder, as used in the manifest, or null if there isn't
+	 *         one
+	 */
+	public synchronized String getPath(final String path) {
+		return names.get(path);
+	}
+
+	/**
+	 * Make the hashed copy of an output and record it, deleting the copy of any previous content
+	 * 
+	 * @return true if the copy was written, false if it already existed with the same content
+	 */
+	public boolean write(final File output) throws IOException {
+		String path = relativize(output);
+		final String hashed = hashedName(path, BuildCache.hash(output).substring(0, HASH_LENGTH));
+		boolean written = outputWriter.write(new File(baseDir, hashed), new OutputWriter.Generator() {
+			@Override
+			public long writeTo(final File copy) throws IOException {
+				Files.copy(output, copy);
+				return copy.length();
+			}
+		});
+		String previous;
+		synchronized (this) {
+			previous = names.put(path, hashed);
+		}
+		if (previous != null && !previous.equals(hashed)) {
+			new File(baseDir, previous).delete();
+			Precompressor.sidecar(new File(baseDir, previous)).delete();
+		}
+		return written;
+	}
+
+	/**
+	 * Forget an output that is no longer generated, deleting its hashed copy
+	 */
+	public void remove(final File output) {
+		String previous;
+		synchronized (this) {
+			previous = names.remove(relativize(output));
+		}
+		if (previous != null) {
+			new File(baseDir, previous).delete();
+			Precompressor.sidecar(new File(baseDir, previous)).delete();
+		}
+	}
+
+	private String relativize(final File output) {
+		String base = baseDir.getAbsolutePath() + File.separator;
+		String path = output.getAbsolutePath();
+		return (path.startsWith(base) ? path.substring(base.length()) : output.getName()).replace('\\', '/');
+	}
+
+	private static String unquote(final String quoted) {
+		return quoted.replaceAll("\\\\(.)", "$1");
+	}
+
+	@Override
+	public synchronized String toString() {
+		return names.size() + " hashed files in " + file.getAbsolutePath();
+	}
+}
@@ -1,13 +1,24 @@
 package com.keithbranton.mojo;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -16,13 +27,14 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
-import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.Scanner;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
+import com.google.common.io.Files;
 
 /**
  * Maven/Java approximation of grunt-html2js functionality
@@ -96,61 +108,317 @@ public class Html2jsMojo extends AbstractMojo {
 	@Parameter
 	private List<String> preambles;
 
+	/**
+	 * How the templates are put into the template cache - put for a $templateCache.put statement for each template, with a string
+	 * concatenation for each line, or table for a single table of every template, as JSON strings, and a loop that puts them in the cache
+	 */
+	@Parameter(defaultValue = "put")
+	private String templateFormat;
+
+	/**
+	 * Location for the files used to keep track of what has already been built
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/angular-maven-plugin", required = true)
+	private File cacheDirectory;
+
+	/**
+	 * The character encoding of the templates, also used for the generated file. The platform encoding is used if it isn't set.
+	 */
+	@Parameter(defaultValue = "${project.build.sourceEncoding}")
+	private String encoding;
+
+	/**
+	 * A flag to share the index of the source folder with every other execution of html2js or join that sets it in the same JVM - e.g.
+	 * the other projects of a reactor build, or the next build in a build daemon
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean sharedCache;
+
+	/**
+	 * Where to write a JSON report of the timings, counts and output size of each build
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/angular-maven-plugin/html2js-report.json")
+	private File report;
+
+	/**
+	 * A flag to log the timings, counts and output size of each build as a table
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean logMetrics;
+
+	/**
+	 * The largest, in KB, that the generated file may be - 0 for no limit
+	 */
+	@Parameter(defaultValue = "0")
+	private int maxOutputSize;
+
+	/**
+	 * The longest, in milliseconds, that the build may take - 0 for no limit
+	 */
+	@Parameter(defaultValue = "0")
+	private int maxTime;
+
+	/**
+	 * A flag to fail the build when maxOutputSize or maxTime is exceeded, rather than just warning
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean failOnBudget;
+
+	/**
+	 * Comma separated list of patterns that split the templates into separate files, or shards - the templates that match each pattern
+	 * go in their own shard, and the rest in another. Target is then an index module that maps each template to its shard
+	 */
+	@Parameter
+	private String shards;
+
+	/**
+	 * The size, in KB, to pack the templates of each shard up to - a shard is split into as many files as it needs. 0 for no limit
+	 */
+	@Parameter(defaultValue = "0")
+	private int shardSize;
+
+	/**
+	 * A flag to also write a copy of the target compressed at maximum compression, with .gz appended to its name, for servers that can
+	 * serve precompressed files
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean gzip;
+
+	/**
+	 * The number of threads to compress on when gzip is set - defaults to the number of available processors
+	 */
+	@Parameter(defaultValue = "0")
+	private int threads;
+
+	/**
+	 * A flag to also write a copy of the target named by a hash of its content, e.g. templates.3f9a1c2b.js, so that it can be cached
+	 * forever
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean hashNames;
+
+	/**
+	 * Where to write the JSON map from the name of the target to the name of its hashed copy, when hashNames is set
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/angular-maven-plugin/html2js-manifest.json")
+	private File manifest;
+
 	@Component(role = org.sonatype.plexus.build.incremental.BuildContext.class)
 	private BuildContext buildContext;
 
 	// Local fields below this point
+	private static final String EOL = IOUtils.LINE_SEPARATOR;
+	private static final String[] PHASES = { "scan", "escape", "emit", "refresh", "compress" };
+
 	private String[] includes;
+	private boolean table;
+	private Charset charset;
 	private String[] excludes;
+	private Glob[] shardGlobs;
+	private OutputWriter outputWriter;
+	private SourceIndex sourceIndex;
+	private TemplateFragments fragments;
+	private BuildMetrics metrics;
+	private Precompressor precompressor;
+	private HashManifest hashManifest;
 
 	/** @see org.apache.maven.plugin.Mojo#execute() */
 	@Override
 	public void execute() throws MojoExecutionException {
 		long start = System.currentTimeMillis();
 		try {
-			includes = include == null ? null : include.split(",");
-			excludes = exclude == null ? null : exclude.split(",");
-			prefix = prefix == null ? "" : prefix;
-
-			getLog().debug("-------------------------------------------------");
-			getLog().debug("---Html2js Mojo ---------------------------------");
-			getLog().debug("---moduleName: " + moduleName);
-			getLog().debug("---sourceDir: " + sourceDir.getAbsolutePath());
-			getLog().debug("---angularDependency: " + angularDependency);
-			getLog().debug("---includes: " + (includes == null ? "null" : Arrays.asList(includes)));
-			getLog().debug("---excludes: " + (excludes == null ? "null" : Arrays.asList(excludes)));
-			getLog().debug("---target: " + target.getAbsolutePath());
-			getLog().debug("---addRequireWrapper: " + addRequireWrapper);
-			getLog().debug("---prefix: \"" + prefix + "\"");
-			getLog().debug("---multiModule: " + multiModule);
-			getLog().debug("---preambles: " + preambles);
-			getLog().debug("-------------------------------------------------");
-
-			if (!isBuildNeeded()) {
-				getLog().info("Html2js:: Nothing to do");
-				return;
-			}
-
-			if (!target.getParentFile().exists()) {
-				target.getParentFile().mkdirs();
-			}
+			initialize();
+			metrics = new BuildMetrics("html2js", PHASES);
 
 			try {
-				doIt();
-			} catch (final Exception e) {
-				throw new MojoExecutionException("", e);
+				if (!isBuildNeeded()) {
+					getLog().info("Html2js:: Nothing to do");
+					if (target.exists()) {
+						// in case gzip or hashNames has just been turned on
+						for (File output : findShardFiles()) {
+							metrics.output(output, false);
+							writeCopies(output, false);
+						}
+						metrics.output(target, false);
+						writeCopies(target, false);
+						compressed();
+						saveManifest();
+					}
+					report();
+					return;
+				}
+			} catch (final IOException ex) {
+				throw new MojoExecutionException("Html2js:: Unable to scan the source folder: " + sourceDir.getAbsolutePath(), ex);
 			}
+
+			build();
 		} finally {
+			close();
 			getLog().info("Html2js:: took " + (System.currentTimeMillis() - start) + "ms");
 		}
 	}
 
+	/**
+	 * Log the configuration and set up everything that is kept from one build to the next
+	 */
+	void initialize() throws MojoExecutionException {
+		includes = include == null ? null : include.split(",");
+		excludes = exclude == null ? null : exclude.split(",");
+		shardGlobs = Glob.compile(shards == null ? new String[0] : shards.split(","));
+		prefix = prefix == null ? "" : prefix;
+		charset = StringUtils.isBlank(encoding) ? Charset.defaultCharset() : Charset.forName(encoding);
+		templateFormat = templateFormat == null ? "put" : templateFormat;
+		if (!"put".equals(templateFormat) && !"table".equals(templateFormat)) {
+			throw new MojoExecutionException("Html2js:: templateFormat must be put or table, not: " + templateFormat);
+		}
+		table = "table".equals(templateFormat);
+
+		getLog().debug("-------------------------------------------------");
+		getLog().debug("---Html2js Mojo ---------------------------------");
+		getLog().debug("---moduleName: " + moduleName);
+		getLog().debug("---sourceDir: " + sourceDir.getAbsolutePath());
+		getLog().debug("---angularDependency: " + angularDependency);
+		getLog().debug("---includes: " + (includes == null ? "null" : Arrays.asList(includes)));
+		getLog().debug("---excludes: " + (excludes == null ? "null" : Arrays.asList(excludes)));
+		getLog().debug("---target: " + target.getAbsolutePath());
+		getLog().debug("---addRequireWrapper: " + addRequireWrapper);
+		getLog().debug("---prefix: \"" + prefix + "\"");
+		getLog().debug("---multiModule: " + multiModule);
+		getLog().debug("---templateFormat: " + templateFormat);
+		getLog().debug("---preambles: " + preambles);
+		getLog().debug("---cacheDirectory: " + cacheDirectory.getAbsolutePath());
+		getLog().debug("---sharedCache: " + sharedCache);
+		getLog().debug("---encoding: " + charset.name() + (StringUtils.isBlank(encoding) ? " (platform encoding)" : ""));
+		getLog().debug("---report: " + (report == null ? "null" : report.getAbsolutePath()));
+		getLog().debug("---budgets: maxOutputSize " + maxOutputSize + "KB, maxTime " + maxTime + "ms"
+				+ (failOnBudget ? ", failOnBudget" : ""));
+		getLog().debug("---shards: " + (shards == null ? "null" : Arrays.asList(shards.split(","))));
+		getLog().debug("---shardSize: " + shardSize + "KB");
+		getLog().debug("---gzip: " + gzip + (gzip ? " (" + getThreadCount() + " threads)" : ""));
+		getLog().debug("---hashNames: " + hashNames + (hashNames ? " (" + manifest.getAbsolutePath() + ")" : ""));
+		getLog().debug("-------------------------------------------------");
+		if (StringUtils.isBlank(encoding) && !Charsets.UTF_8.equals(charset)) {
+			// templates have always been read in the platform encoding - only worth mentioning when it's an unusual one
+			getLog().warn("Html2js:: Using platform encoding (" + charset.name()
+					+ ") for the templates, i.e. build is platform dependent!");
+		}
+		if (gzip) {
+			precompressor = new Precompressor(getThreadCount());
+		}
+		if (hashNames) {
+			hashManifest = new HashManifest(manifest, target.getAbsoluteFile().getParentFile());
+			hashManifest.load();
+		}
+	}
+
+	/**
+	 * Release everything set up by initialize
+	 */
+	void close() {
+		if (precompressor != null) {
+			precompressor.close();
+			precompressor = null;
+		}
+		hashManifest = null;
+	}
+
+	/**
+	 * Generate the target from the templates in the current index of the source folder
+	 */
+	void build() throws MojoExecutionException {
+		if (!target.getParentFile().exists()) {
+			target.getParentFile().mkdirs();
+		}
+
+		outputWriter = new OutputWriter();
+		try {
+			doIt();
+		} catch (final Exception e) {
+			throw new MojoExecutionException("", e);
+		}
+		getLog().info("Html2js:: Output files: " + outputWriter);
+		report();
+	}
+
+	/**
+	 * Write the report, log the summary and check the budgets of the build that just finished
+	 */
+	private void report() throws MojoExecutionException {
+		metrics.finish();
+		List<String> violations = metrics.checkBudgets(maxOutputSize, maxTime);
+		if (report != null) {
+			try {
+				metrics.writeReport(report);
+			} catch (final IOException ex) {
+				throw new MojoExecutionException("Html2js:: Unable to write report: " + report.getAbsolutePath(), ex);
+			}
+		}
+		if (logMetrics) {
+			for (String line : metrics.getSummary()) {
+				getLog().info("Html2js:: " + line);
+			}
+		}
+		for (String violation : violations) {
+			if (failOnBudget) {
+				getLog().error("Html2js:: Budget exceeded: " + violation);
+			} else {
+				getLog().warn("Html2js:: Budget exceeded: " + violation);
+			}
+		}
+		if (failOnBudget && !violations.isEmpty()) {
+			throw new MojoExecutionException("Html2js:: " + violations.size() + " budgets exceeded");
+		}
+	}
+
+	/**
+	 * Bring the index of the source folder up to date with a batch of changes, so the next build sees the templates as they are now
+	 * 
+	 * @param events the files that were created, changed or deleted, or null to index the source folder again
+	 * @return true if a template was added, changed or deleted
+	 */
+	boolean update(final Collection<File> events) throws IOException {
+		metrics = new BuildMetrics("html2js", PHASES);
+		if (events == null || sourceIndex == null) {
+			sourceIndex = null;
+			findFiles();
+			return true;
+		}
+		List<File> changed = new ArrayList<>();
+		List<File> deleted = new ArrayList<>();
+		for (File file : events) {
+			// a folder's files are reported separately
+			if (file.isFile()) {
+				changed.add(file);
+			} else if (!file.exists()) {
+				deleted.add(file);
+			}
+		}
+		long start = metrics.start();
+		sourceIndex = sharedCache ? SharedCache.update(sourceDir, changed, deleted) : sourceIndex.update(changed, deleted);
+		metrics.time("scan", start);
+		metrics.count("sourceFiles", sourceIndex.getFileCount());
+		changed.addAll(deleted);
+		List<File> templates = sourceIndex.filter(sourceDir, changed, includes, excludes, true);
+		for (File template : templates) {
+			getLog().info("Html2js:: detected " + (template.exists() ? "new/changed" : "deleted") + " template: " + shorten(template));
+		}
+		return !templates.isEmpty();
+	}
+
+	File getSourceDir() {
+		return sourceDir;
+	}
+
+	private int getThreadCount() {
+		return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
 	/**
 	 * We can skip if no files were deleted, modified or added since the last build AND the target file is still there
 	 * 
 	 * @return true if a build is needed, otherwise false
 	 */
-	private boolean isBuildNeeded() {
+	private boolean isBuildNeeded() throws IOException {
 		if (!buildContext.isIncremental()) {
 			// always needed if we're not doing an incremental build
 			getLog().info("Html2js:: full build");
@@ -162,6 +430,10 @@ public class Html2jsMojo extends AbstractMojo {
 			getLog().info("Html2js:: detected target file missing");
 			return true;
 		}
+		if (isSharded() == findShardFiles().isEmpty()) {
+			getLog().info("Html2js:: detected change to sharding");
+			return true;
+		}
 
 		// check for any deleted files
 		List<File> deleted = findFiles(buildContext.newDeleteScanner(sourceDir));
@@ -181,9 +453,10 @@ public class Html2jsMojo extends AbstractMojo {
 		long lastModified = 0;
 		File lastModifiedFile = null;
 		for (File templateFile : findFiles()) {
-			if (templateFile.lastModified() > lastModified) {
+			long modified = sourceIndex.get(templateFile).getLastModified();
+			if (modified > lastModified) {
 				lastModifiedFile = templateFile;
-				lastModified = templateFile.lastModified();
+				lastModified = modified;
 			}
 		}
 
@@ -208,87 +481,433 @@ public class Html2jsMojo extends AbstractMojo {
 			throw new MojoExecutionException("Html2js:: Could not find the source folder: " + sourceDir.getAbsolutePath());
 		}
 		// first make a list of all templates
-		List<File> files = findFiles();
+		final List<File> files = findFiles();
 		Collections.sort(files);
-		List<String> lines = new ArrayList<>();
 
-		// add the preambles
+		for (final File file : files) {
+			getLog().debug("Html2js:: found: " + file.getName());
+		}
+
+		// the escaped templates are cached between builds so only new and changed ones need to be escaped again
+		if (fragments == null) {
+			fragments = new TemplateFragments(new File(cacheDirectory, "html2js-"
+					+ BuildCache.hash(target.getAbsolutePath()).substring(0, 12)), templateFormat + "-" + charset.name() + "-v"
+					+ BuildCache.FORMAT_VERSION + (EOL.equals("\n") ? "" : "-crlf"));
+			fragments.load();
+		}
+
+		metrics.count("templates", files.size());
+
+		if (!isSharded()) {
+			// finally emit the output file
+			boolean written = emit(target, new OutputWriter.Generator() {
+				@Override
+				public long writeTo(final File file) throws IOException {
+					try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), charset))) {
+						writeTemplates(files, moduleName, out);
+					}
+					return file.length();
+				}
+			});
+			writeCopies(target, written);
+			deleteShards(new ArrayList<File>());
+		} else {
+			writeShards(files);
+		}
+		metrics.count("fragmentsGenerated", fragments.getGenerated());
+		metrics.count("fragmentsReused", fragments.getReused());
+		getLog().info("Html2js:: Templates: " + fragments);
+		fragments.save();
+		compressed();
+		saveManifest();
+	}
+
+	/**
+	 * Write each shard of the templates to its own file, then the index of which shard each template is in to target
+	 */
+	private void writeShards(final List<File> files) throws Exception {
+		final Map<String, String> shardFiles = new LinkedHashMap<>();
+		final Map<String, String> templateShards = new LinkedHashMap<>();
+		List<File> outputs = new ArrayList<>();
+		List<List<File>> groups = shard(files);
+		for (int i = 0; i < groups.size(); i++) {
+			final List<File> group = groups.get(i);
+			final String shardModule = moduleName + "-" + i;
+			File output = new File(target.getAbsoluteFile().getParentFile(), Files.getNameWithoutExtension(target.getName()) + "-" + i
+					+ ".js");
+			boolean written = emit(output, new OutputWriter.Generator() {
+				@Override
+				public long writeTo(final File file) throws IOException {
+					try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), charset))) {
+						writeTemplates(group, shardModule, out);
+					}
+					return file.length();
+				}
+			});
+			outputs.add(output);
+			shardFiles.put(shardModule, writeCopies(output, written).getName());
+			for (File file : group) {
+				templateShards.put(key(file), shardModule);
+			}
+		}
+
+		deleteShards(outputs);
+
+		boolean written = emit(target, new OutputWriter.Generator() {
+			@Override
+			public long writeTo(final File file) throws IOException {
+				try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), charset))) {
+					writeIndex(shardFiles, templateShards, out);
+				}
+				return file.length();
+			}
+		});
+		writeCopies(target, written);
+		metrics.count("shards", groups.size());
+		getLog().info("Html2js:: Split " + files.size() + " templates into " + groups.size() + " shards");
+	}
+
+	/**
+	 * @return the templates grouped by the first shard pattern they match, with the rest last, and each group split to fit in shardSize
+	 */
+	private List<List<File>> shard(final List<File> files) {
+		List<List<File>> groups = new ArrayList<>();
+		for (int i = 0; i <= shardGlobs.length; i++) {
+			groups.add(new ArrayList<File>());
+		}
+		for (File file : files) {
+			String name = StringUtils.removeStart(shorten(file).replace("\\", "/"), "/");
+			int group = 0;
+			while (group < shardGlobs.length && !shardGlobs[group].matches(name)) {
+				group++;
+			}
+			groups.get(group).add(file);
+		}
+
+		List<List<File>> results = new ArrayList<>();
+		for (List<File> group : groups) {
+			List<File> shard = new ArrayList<>();
+			long size = 0;
+			for (File file : group) {
+				long length = sourceIndex.get(file).getSize();
+				if (shardSize > 0 && !shard.isEmpty() && size + length > shardSize * 1024L) {
+					results.add(shard);
+					shard = new ArrayList<>();
+					size = 0;
+				}
+				shard.add(file);
+				size += length;
+			}
+			if (!shard.isEmpty()) {
+				results.add(shard);
+			}
+		}
+		return results;
+	}
+
+	private boolean isSharded() {
+		return shardGlobs.length > 0 || shardSize > 0;
+	}
+
+	/**
+	 * Delete the shards left over from a build with more of them
+	 */
+	private void deleteShards(final List<File> keep) {
+		for (File output : findShardFiles()) {
+			if (!keep.contains(output)) {
+				getLog().info("Html2js:: Deleting unused shard: " + output.getAbsolutePath());
+				output.delete();
+				Precompressor.sidecar(output).delete();
+				if (hashManifest != null) {
+					hashManifest.remove(output);
+				}
+				refresh(output);
+			}
+		}
+	}
+
+	/**
+	 * @return the shards in the target folder, whether or not they're from this build
+	 */
+	private List<File> findShardFiles() {
+		final Pattern name = Pattern.compile(Pattern.quote(Files.getNameWithoutExtension(target.getName())) + "-\\d+\\.js");
+		File[] results = target.getAbsoluteFile().getParentFile().listFiles(new FileFilter() {
+			@Override
+			public boolean accept(final File file) {
+				return name.matcher(file.getName()).matches();
+			}
+		});
+		if (results == null) {
+			return new ArrayList<>();
+		}
+		Arrays.sort(results);
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * @return true if the output was written, false if it already had the same content
+	 */
+	private boolean emit(final File output, final OutputWriter.Generator generator) throws MojoExecutionException {
+		long start = metrics.start();
+		try {
+			boolean written = outputWriter.write(output, generator);
+			metrics.time("emit", start);
+			metrics.output(output, written);
+			if (!written) {
+				metrics.count("outputsUnchanged", 1);
+				getLog().info("Html2js:: Output file unchanged: " + output.getAbsolutePath());
+				return false;
+			}
+			metrics.count("outputsWritten", 1);
+			metrics.count("bytesWritten", output.length());
+			getLog().info("Html2js:: Wrote output file: " + output.getAbsolutePath());
+		} catch (final IOException ex) {
+			throw new MojoExecutionException("Html2js:: Unable to write output file: " + output.getAbsolutePath(), ex);
+		}
+
+		refresh(output);
+		return true;
+	}
+
+	/**
+	 * BuildContext implementations are not guaranteed to be thread safe, so all refreshes go through here
+	 */
+	private void refresh(final File file) {
+		long start = metrics.start();
+		synchronized (buildContext) {
+			buildContext.refresh(file);
+		}
+		metrics.time("refresh", start);
+	}
+
+	/**
+	 * Start writing the hashed and compressed copies of an output, as configured - each is skipped when the output wasn't written and
+	 * already has one
+	 * 
+	 * @return the hashed copy if there is one, otherwise the output
+	 */
+	private File writeCopies(final File output, final boolean written) throws MojoExecutionException {
+		File result = output;
+		if (hashManifest != null) {
+			boolean copied = hashCopy(output, written);
+			result = hashManifest.get(output);
+			if (precompressor != null) {
+				precompressor.submit(result, copied);
+			}
+		}
+		if (precompressor != null) {
+			precompressor.submit(output, written);
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if the hashed copy was written
+	 */
+	private boolean hashCopy(final File output, final boolean written) throws MojoExecutionException {
+		if (!written && hashManifest.get(output) != null) {
+			return false;
+		}
+		try {
+			boolean copied = hashManifest.write(output);
+			if (copied) {
+				File copy = hashManifest.get(output);
+				metrics.count("hashedCopiesWritten", 1);
+				getLog().info("Html2js:: Wrote hashed copy: " + copy.getAbsolutePath());
+				refresh(copy);
+			}
+			return copied;
+		} catch (final IOException ex) {
+			throw new MojoExecutionException("Html2js:: Unable to write hashed copy of: " + output.getAbsolutePath(), ex);
+		}
+	}
+
+	private void saveManifest() throws MojoExecutionException {
+		if (hashManifest != null) {
+			try {
+				hashManifest.save();
+			} catch (final IOException ex) {
+				throw new MojoExecutionException("Html2js:: Unable to write manifest: " + manifest.getAbsolutePath(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Wait for the compressed copies to be written
+	 */
+	private void compressed() throws MojoExecutionException {
+		if (precompressor == null) {
+			return;
+		}
+		try {
+			for (Precompressor.Result result : precompressor.finish()) {
+				// the time spent on the worker
+				metrics.time("compress", System.nanoTime() - result.getNanos());
+				metrics.output(result.getSidecar(), result.isWritten());
+				metrics.count(result.isWritten() ? "sidecarsWritten" : "sidecarsUnchanged", 1);
+				getLog().info("Html2js:: Compressed " + result.getFile().getAbsolutePath() + ": " + result);
+				if (result.isWritten()) {
+					refresh(result.getSidecar());
+				}
+			}
+		} catch (final IOException ex) {
+			throw new MojoExecutionException("Html2js:: Unable to write compressed file", ex);
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Html2js:: Interrupted while compressing: " + target.getAbsolutePath(), ex);
+		}
+	}
+
+	/**
+	 * Write the index of which shard each template is in, for loading them when they are needed
+	 */
+	private void writeIndex(final Map<String, String> shardFiles, final Map<String, String> templateShards, final Writer out)
+			throws IOException {
 		if (preambles != null) {
-			lines.addAll(preambles);
+			for (String preamble : preambles) {
+				line(out, preamble);
+			}
 		}
 
 		if (addRequireWrapper) {
-			lines.add("define(['" + angularDependency + "'], function (angular){");
-			lines.add("");
+			line(out, "define(['" + angularDependency + "'], function (angular){");
+			line(out, "");
 		}
 
-		for (final File file : files) {
-			getLog().debug("Html2js:: found: " + file.getName());
+		line(out, "angular.module('" + moduleName + "', []).constant('templateShards', {");
+		line(out, "\tfiles : {");
+		entries(out, shardFiles);
+		line(out, "\t},");
+		line(out, "\ttemplates : {");
+		entries(out, templateShards);
+		line(out, "\t}");
+		line(out, "});");
+
+		if (addRequireWrapper) {
+			line(out, "");
+			line(out, "return null;");
+			line(out, "});");
+		}
+	}
+
+	private void entries(final Writer out, final Map<String, String> entries) throws IOException {
+		int remaining = entries.size();
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			line(out, "\t\t'" + entry.getKey() + "' : '" + entry.getValue() + "'" + (--remaining > 0 ? "," : ""));
+		}
+	}
+
+	private void writeTemplates(final List<File> files, final String moduleName, final Writer out) throws IOException {
+		// add the preambles
+		if (preambles != null) {
+			for (String preamble : preambles) {
+				line(out, preamble);
+			}
+		}
+
+		if (addRequireWrapper) {
+			line(out, "define(['" + angularDependency + "'], function (angular){");
+			line(out, "");
 		}
 
 		if (multiModule) {
-			lines.add("angular.module('" + moduleName + "'" + ", ['"
+			line(out, "angular.module('" + moduleName + "'" + ", ['"
 					+ Joiner.on("', '").join(Lists.transform(files, new Function<File, String>() {
 						@Override
 						public String apply(final File file) {
-							return prefix + file.getAbsolutePath().replace(sourceDir.getAbsolutePath(), "").replace("\\", "/");
+							return key(file);
 						}
 					})) + "']" + ");");
-			lines.add("");
+			line(out, "");
 		} else {
-			lines.add("angular.module('" + moduleName + "', []).run(['$templateCache', function($templateCache) {");
+			line(out, "angular.module('" + moduleName + "', []).run(['$templateCache', function($templateCache) {");
 		}
 
-		for (final File file : files) {
-			String shortName = prefix + file.getAbsolutePath().replace(sourceDir.getAbsolutePath(), "").replace("\\", "/");
+		final TemplateEscaper escaper = new TemplateEscaper(charset);
+		TemplateFragments.Generator generator = new TemplateFragments.Generator() {
+			@Override
+			public String generate(final File template, final String key) throws IOException {
+				long start = metrics.start();
+				StringWriter fragment = new StringWriter();
+				if (table) {
+					escaper.writeEntry(template, key, fragment);
+				} else {
+					escaper.writePut(template, "'" + key + "'", fragment, EOL);
+				}
+				metrics.time("escape", start);
+				return fragment.toString();
+			}
+		};
+
+		if (table && !multiModule) {
+			TemplateEscaper.writeTableStart(out, EOL);
+		}
+		for (int i = 0; i < files.size(); i++) {
+			File file = files.get(i);
+			String shortName = key(file);
 			if (multiModule) {
-				lines.add("angular.module('" + shortName + "', []).run(['$templateCache', function($templateCache) {");
+				line(out, "angular.module('" + shortName + "', []).run(['$templateCache', function($templateCache) {");
+				if (table) {
+					TemplateEscaper.writeTableStart(out, EOL);
+				}
 			}
-			List<String> fileLines = null;
+			SourceIndex.Entry entry = sourceIndex.get(file);
+			String fragment;
 			try {
-				fileLines = FileUtils.readLines(file);
+				fragment = fragments.get(file, shortName, entry.getSize(), entry.getLastModified(), generator);
 			} catch (IOException ex) {
-				throw new MojoExecutionException("Html2js:: Unable to read template file: " + file.getAbsolutePath(), ex);
-			}
-			if (fileLines.isEmpty()) {
-				lines.add("\t$templateCache.put('" + shortName + "', \"\");");
-			} else {
-				lines.add("\t$templateCache.put('" + shortName + "',");
-				for (String line : fileLines) {
-					lines.add("\t\"" + line.replace("\\", "\\\\").replace("\"", "\\\"") + "\\n\" +");
-				}
-				lines.set(lines.size() - 1, StringUtils.chomp(lines.get(lines.size() - 1), "\\n\" +") + "\");");
+				throw new IOException("Html2js:: Unable to read template file: " + file.getAbsolutePath(), ex);
 			}
+			// the entries of a table are separated by commas
+			line(out, table && !multiModule && i < files.size() - 1 ? fragment + "," : fragment);
 			if (multiModule) {
-				lines.add("}]);");
-				lines.add("");
+				if (table) {
+					TemplateEscaper.writeTableEnd(out, EOL);
+					line(out, "");
+				}
+				line(out, "}]);");
+				line(out, "");
 			}
 		}
 		if (!multiModule) {
-			lines.add("}]);");
+			if (table) {
+				TemplateEscaper.writeTableEnd(out, EOL);
+				line(out, "");
+			}
+			line(out, "}]);");
 		}
 
 		if (addRequireWrapper) {
-			lines.add("");
-			lines.add("return null;");
-			lines.add("});");
+			line(out, "");
+			line(out, "return null;");
+			line(out, "});");
 		}
+	}
 
-		// finally emit the output file
-		try {
-			getLog().info("Html2js:: Writing output file: " + target.getAbsolutePath());
-			FileUtils.writeLines(target, lines);
-		} catch (final IOException ex) {
-			throw new MojoExecutionException("Html2js:: Unable to write output file: " + target.getAbsolutePath(), ex);
-		}
+	/**
+	 * @return the key of the template in the template cache
+	 */
+	private String key(final File file) {
+		return prefix + file.getAbsolutePath().replace(sourceDir.getAbsolutePath(), "").replace("\\", "/");
+	}
 
-		buildContext.refresh(target);
+	private void line(final Writer out, final String line) throws IOException {
+		out.write(line);
+		out.write(EOL);
 	}
 
-	private List<File> findFiles() {
-		final DirectoryScanner scanner = new DirectoryScanner();
-		scanner.setBasedir(sourceDir);
-		return findFiles(scanner);
+	/**
+	 * @return all the templates - from an index of the source folder that is built the first time it's needed
+	 */
+	private List<File> findFiles() throws IOException {
+		if (sourceIndex == null) {
+			long start = metrics.start();
+			sourceIndex = sharedCache ? SharedCache.walk(sourceDir) : SourceIndex.walk(sourceDir);
+			metrics.time("scan", start);
+			metrics.count("sourceFiles", sourceIndex.getFileCount());
+			getLog().info("Html2js:: Indexed " + sourceIndex + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+		}
+		return sourceIndex.find(sourceDir, includes, excludes, true);
 	}
 
 	private List<File> findFiles(final Scanner scanner) {
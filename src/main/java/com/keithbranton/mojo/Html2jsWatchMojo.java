@@ -0,0 +1,68 @@
+package com.keithbranton.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * The html2js goal, kept running - the source folder is watched and the target is generated again whenever a template is added,
+ * changed or deleted.
+ * 
+ * The index of the source folder is brought up to date from the changes the watcher reports, and the target is only generated again
+ * when one of them is a template. The generated code for each template is kept in memory between builds, so only the templates that
+ * changed are read again. Stop it with Ctrl-C.
+ * 
+ * @author Keith Branton
+ */
+@Mojo(name = "html2js-watch")
+public class Html2jsWatchMojo extends Html2jsMojo {
+
+	/**
+	 * How long, in milliseconds, the source folder must be quiet after a change before building - so a burst of changes, like a git
+	 * checkout, only causes one build
+	 */
+	@Parameter(defaultValue = "50")
+	private int debounce;
+
+	/** @see org.apache.maven.plugin.Mojo#execute() */
+	@Override
+	public void execute() throws MojoExecutionException {
+		initialize();
+		try (SourceWatcher watcher = new SourceWatcher(getSourceDir())) {
+			long start = System.currentTimeMillis();
+			update(null);
+			rebuild(start);
+			getLog().info("Html2js:: Watching " + watcher.getDirectoryCount() + " folders under " + watcher.getRoot().getAbsolutePath()
+					+ " for changes");
+			while (true) {
+				Set<File> events = watcher.await(debounce);
+				start = System.currentTimeMillis();
+				if (!update(events)) {
+					getLog().debug("Html2js:: No templates changed");
+					continue;
+				}
+				rebuild(start);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			throw new MojoExecutionException("Html2js:: Unable to watch the source folder: " + getSourceDir().getAbsolutePath(), e);
+		} finally {
+			close();
+		}
+	}
+
+	private void rebuild(final long start) {
+		try {
+			build();
+		} catch (MojoExecutionException e) {
+			// keep watching - the next change may well fix it
+			getLog().error("Html2js:: failed.", e);
+		}
+		getLog().info("Html2js:: took " + (System.currentTimeMillis() - start) + "ms");
+	}
+}
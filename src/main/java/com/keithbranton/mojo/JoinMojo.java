@@ -2,26 +2,38 @@ package com.keithbranton.mojo;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang.StringUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
-import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.Scanner;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
@@ -29,7 +41,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
-import com.google.common.io.Files;
+import com.keithbranton.mojo.FileContentCache.Content;
 
 /**
  * Bundle an angularjs application for modular production deployment
@@ -93,78 +105,896 @@ public class JoinMojo extends AbstractMojo {
 	@Parameter(defaultValue = "")
 	private String prefix;
 
+	/**
+	 * How the templates of each module are put into the template cache - put for a $templateCache.put statement for each template,
+	 * with a string concatenation for each line, or table for a single table of the templates, as JSON strings, and a loop
+	 */
+	@Parameter(defaultValue = "put")
+	private String templateFormat;
+
+	/**
+	 * A flag to process the modules on multiple threads. The generated files and the log output are the same as for a sequential build
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean parallel;
+
+	/**
+	 * The number of threads to use when parallel is set - defaults to the number of available processors
+	 */
+	@Parameter(defaultValue = "0")
+	private int threads;
+
+	/**
+	 * Location for the files used to keep track of what has already been built
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/angular-maven-plugin", required = true)
+	private File cacheDirectory;
+
+	/**
+	 * The amount of memory, in megabytes, that may be used to hold the contents of source files that are shared between modules
+	 */
+	@Parameter(defaultValue = "64")
+	private int contentCacheSize;
+
+	/**
+	 * The most modules that may have their files in memory at once - 0 for no limit. When set, each module is loaded, built and released
+	 * in turn rather than all of them being loaded before any are built, and only the paths that main needs are kept
+	 */
+	@Parameter(defaultValue = "0")
+	private int maxModulesInMemory;
+
+	/**
+	 * A flag to share the index of the source folder and the contents of the source files with every other execution of join or
+	 * html2js that sets it in the same JVM - e.g. the other projects of a reactor build, or the next build in a build daemon. The shared
+	 * contents may use the largest contentCacheSize of any of them
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean sharedCache;
+
+	/**
+	 * Where to write a JSON report of the timings, counts and output sizes of each build
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/angular-maven-plugin/join-report.json")
+	private File report;
+
+	/**
+	 * A flag to log the timings, counts and output sizes of each build as a table
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean logMetrics;
+
+	/**
+	 * The largest, in KB, that any generated file may be - 0 for no limit
+	 */
+	@Parameter(defaultValue = "0")
+	private int maxOutputSize;
+
+	/**
+	 * The longest, in milliseconds, that the build may take - 0 for no limit
+	 */
+	@Parameter(defaultValue = "0")
+	private int maxTime;
+
+	/**
+	 * A flag to fail the build when maxOutputSize or maxTime is exceeded, rather than just warning
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean failOnBudget;
+
+	/**
+	 * A flag to also write a copy of each generated file compressed at maximum compression, with .gz appended to its name, for servers
+	 * that can serve precompressed files. The files are compressed on threads threads, whether or not parallel is set
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean gzip;
+
+	/**
+	 * A flag to strip comments and unnecessary whitespace from the generated files as they are written. Strings, regular expressions and
+	 * /*! comments are kept as they are, and nothing is renamed - so it's much cheaper, and much less thorough, than a minifier
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean compact;
+
+	/**
+	 * Files that are included by more than this many modules are written once, to commonChunk, instead of into each of them - 0 to
+	 * include every file in every module that uses it
+	 */
+	@Parameter(defaultValue = "0")
+	private int commonThreshold;
+
+	/**
+	 * The file, relative to target, for the files that are shared by more than commonThreshold modules. The modules that use them load
+	 * it as commonChunkBase followed by commonChunk without its .js extension
+	 */
+	@Parameter(defaultValue = "common.js")
+	private String commonChunk;
+
+	/**
+	 * What to put before the name of the common chunk in the dependencies of the modules that load it - e.g. /js/ to load it from an
+	 * absolute path, as the paths in main load the modules. By default the chunk is loaded relative to the baseUrl of require.js
+	 */
+	@Parameter(defaultValue = "")
+	private String commonChunkBase;
+
+	/**
+	 * A flag to also write a copy of each generated file named by a hash of its content, e.g. firstModule.3f9a1c2b.js, so that they can
+	 * be cached forever. The paths of the modules in main are rewritten to the hashed copies
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean hashNames;
+
+	/**
+	 * Where to write the JSON map from the path of each generated file to its hashed copy, relative to target, when hashNames is set
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/angular-maven-plugin/join-manifest.json")
+	private File manifest;
+
 	@Component(role = org.sonatype.plexus.build.incremental.BuildContext.class)
 	private BuildContext buildContext;
 
-	// Local fields below this point
 	private File mainFile, appFile;
 	private String[] modulesArray;
 	private String[] templatesArray;
 	private String[] joinableArray;
-	private final Map<String, String> moduleMap = new HashMap<>();
+	private boolean table;
+	private static final Pattern MODULE_WITH_DEPENDENCIES = Pattern.compile(".module\\s*\\(([^,]+)\\s*,\\s*\\[\\s*([^\\]]+)\\]");
+	private static final Pattern MODULE_WITHOUT_DEPENDENCIES = Pattern.compile(".module\\s*\\(([^,]+)\\s*,\\s*\\[\\s*\\]");
+
+	// Local fields below this point
+	private final Map<String, String> moduleMap = new ConcurrentHashMap<>();
+	private final ThreadLocal<BufferedLog> taskLog = new ThreadLocal<>();
+	private ExecutorService executor;
+	private BuildCache buildCache;
+	private String configuration;
+	private FileContentCache contentCache;
+	private OutputWriter outputWriter;
+	private SourceIndex sourceIndex;
+	private BuildMetrics metrics;
+	private Precompressor precompressor;
+	private HashManifest hashManifest;
+	private Semaphore modulePermits;
+	// the files in the common chunk, and a hash of them that is part of the configuration of every module
+	private Set<File> common = Collections.emptySet();
+	private String hoisting;
+	// where the modules load the common chunk from - its hashed copy when hashNames is set
+	private String chunkReference;
+	// the modules kept from one build to the next, when keepModules is set, and the files that have changed since the last build
+	private final Map<File, Module> loadedModules = new ConcurrentHashMap<>();
+	private boolean keepModules;
+	private Set<File> delta;
+	// the circular dependencies found by this build, each reported once when it finishes
+	private final Set<String> cycles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
 	/** @see org.apache.maven.plugin.Mojo#execute() */
 	@Override
 	public void execute() throws MojoExecutionException {
 		long start = System.currentTimeMillis();
 		try {
-			mainFile = new File(source, main);
-			appFile = new File(source, app);
-			modulesArray = modules == null ? null : modules.split(",");
-			templatesArray = templates == null ? null : templates.split(",");
-			joinableArray = joinable == null ? null : joinable.split(",");
-			prefix = prefix == null ? "" : prefix;
-
-			getLog().info("-------------------------------------------------");
-			getLog().info("---Join Mojo ------------------------------------");
-			getLog().info("---source: " + source.getAbsolutePath());
-			getLog().info("---main: " + mainFile);
-			getLog().info("---app: " + appFile);
-			getLog().info("---modules: " + (modulesArray == null ? "null" : Arrays.asList(modulesArray)));
-			getLog().info("---templates: " + (templatesArray == null ? "null" : Arrays.asList(templatesArray)));
-			getLog().info("---joinable: " + (joinableArray == null ? "null" : Arrays.asList(joinableArray)));
-			getLog().info("---target: " + target.getAbsolutePath());
-			getLog().info("---prefix: \"" + prefix + "\"");
-			getLog().info("-------------------------------------------------");
-
-			// first make a list of all source files
-			List<Module> modules = new ArrayList<Module>();
-			modules.add(new Module(mainFile, true));
-			modules.add(new Module(appFile, false));
-			for (File module : findModules()) {
-				modules.add(new Module(module, false));
-			}
-
-			int count = 0;
-
-			// process all the files except main - since they update the moduleMap array
-			for (final Module module : modules) {
-				if (!module.isMain() && module.isStale()) {
-					processModule(module, moduleMap);
-					count++;
+			initialize();
+			build();
+		} catch (Exception e) {
+			getLog().error(e);
+			throw new MojoExecutionException("Join:: failed.", e);
+		} finally {
+			close();
+			getLog().info("Join:: took " + (System.currentTimeMillis() - start) + "ms");
+		}
+	}
+
+	/**
+	 * Log the configuration and set up everything that is kept from one build to the next
+	 */
+	void initialize() throws MojoExecutionException {
+		mainFile = new File(source, main);
+		appFile = new File(source, app);
+		modulesArray = modules == null ? null : modules.split(",");
+		templatesArray = templates == null ? null : templates.split(",");
+		joinableArray = joinable == null ? null : joinable.split(",");
+		prefix = prefix == null ? "" : prefix;
+		commonChunkBase = commonChunkBase == null ? "" : commonChunkBase;
+		templateFormat = templateFormat == null ? "put" : templateFormat;
+		if (!"put".equals(templateFormat) && !"table".equals(templateFormat)) {
+			throw new MojoExecutionException("Join:: templateFormat must be put or table, not: " + templateFormat);
+		}
+		table = "table".equals(templateFormat);
+
+		getLog().info("-------------------------------------------------");
+		getLog().info("---Join Mojo ------------------------------------");
+		getLog().info("---source: " + source.getAbsolutePath());
+		getLog().info("---main: " + mainFile);
+		getLog().info("---app: " + appFile);
+		getLog().info("---modules: " + (modulesArray == null ? "null" : Arrays.asList(modulesArray)));
+		getLog().info("---templates: " + (templatesArray == null ? "null" : Arrays.asList(templatesArray)));
+		getLog().info("---joinable: " + (joinableArray == null ? "null" : Arrays.asList(joinableArray)));
+		getLog().info("---target: " + target.getAbsolutePath());
+		getLog().info("---prefix: \"" + prefix + "\"");
+		getLog().info("---templateFormat: " + templateFormat);
+		getLog().info("---parallel: " + parallel + (parallel ? " (" + getThreadCount() + " threads)" : ""));
+		getLog().info("---cacheDirectory: " + cacheDirectory.getAbsolutePath());
+		getLog().info("---contentCacheSize: " + contentCacheSize + "MB" + (sharedCache ? " (shared)" : ""));
+		getLog().info("---maxModulesInMemory: " + (maxModulesInMemory > 0 ? maxModulesInMemory : "no limit"));
+		getLog().info("---report: " + (report == null ? "null" : report.getAbsolutePath()));
+		getLog().info("---budgets: maxOutputSize " + maxOutputSize + "KB, maxTime " + maxTime + "ms"
+				+ (failOnBudget ? ", failOnBudget" : ""));
+		getLog().info("---commonThreshold: " + commonThreshold + (commonThreshold > 0 ? " (" + commonChunk + ", loaded as \""
+				+ commonChunkBase + commonChunk.replaceAll("\\.js$", "") + "\")" : ""));
+		getLog().info("---compact: " + compact);
+		getLog().info("---gzip: " + gzip);
+		getLog().info("---hashNames: " + hashNames + (hashNames ? " (" + manifest.getAbsolutePath() + ")" : ""));
+		getLog().info("-------------------------------------------------");
+
+		// anything that affects the content of the generated files
+		configuration = BuildCache.hash(Joiner.on("\n").useForNull("").join(BuildCache.FORMAT_VERSION, source.getAbsolutePath(), main, app,
+				modules, templates, joinable, target.getAbsolutePath(), prefix) + (compact ? "\ncompact" : "") + (table ? "\ntable" : ""));
+		buildCache = new BuildCache(new File(cacheDirectory, "join-" + BuildCache.hash(target.getAbsolutePath()).substring(0, 12)
+				+ ".cache"));
+		contentCache = sharedCache ? SharedCache.getContentCache(contentCacheSize * 1024L * 1024L) : new FileContentCache(
+				contentCacheSize * 1024L * 1024L);
+		outputWriter = new OutputWriter();
+		if (!buildCache.load()) {
+			getLog().info("Join:: No usable build cache found, all modules will be built");
+		}
+
+		if (parallel) {
+			executor = Executors.newFixedThreadPool(getThreadCount());
+		}
+		if (gzip) {
+			precompressor = new Precompressor(getThreadCount());
+		}
+		if (maxModulesInMemory > 0) {
+			modulePermits = new Semaphore(maxModulesInMemory, true);
+		}
+		if (hashNames) {
+			hashManifest = new HashManifest(manifest, target);
+			hashManifest.load();
+		}
+	}
+
+	/**
+	 * Build everything that is out of date - in an incremental build only the files the build context says have changed are looked at
+	 * 
+	 * @return the number of files that were built
+	 */
+	int build() throws Exception {
+		if (!buildContext.isIncremental()) {
+			return build(null, null);
+		}
+		return build(scan(buildContext.newScanner(source), false), scan(buildContext.newDeleteScanner(source), true));
+	}
+
+	/**
+	 * Build everything that is out of date. Only the modules that the build cache can't show to be up to date from the size and
+	 * modification times of their files are loaded
+	 * 
+	 * @param changed the files that have been added or changed since the last build, or null if that isn't known - in which case the
+	 *            source folder is walked again and every file is checked
+	 * @param deleted the files and folders that have been deleted since the last build, or null if that isn't known
+	 * @return the number of files that were built
+	 */
+	int build(final Collection<File> changed, final Collection<File> deleted) throws Exception {
+		metrics = new BuildMetrics("join", "scan", "read", "parse", "escape", "emit", "refresh", "compress");
+		contentCache.setMetrics(metrics);
+		cycles.clear();
+
+		// first make a list of all source files - when it's known what has changed only those files need to be looked at
+		long scanStart = metrics.start();
+		delta = null;
+		if (changed != null && deleted != null) {
+			sourceIndex = updateIndex(changed, deleted);
+			getLog().info("Join:: Incremental build - " + changed.size() + " files changed and " + deleted.size() + " deleted");
+			metrics.count("filesChanged", changed.size());
+			metrics.count("filesDeleted", deleted.size());
+			delta = new HashSet<>();
+			for (File file : Iterables.concat(changed, deleted)) {
+				delta.add(file.getAbsoluteFile());
+			}
+		} else if (sharedCache) {
+			sourceIndex = SharedCache.walk(source);
+		} else {
+			sourceIndex = SourceIndex.walk(source);
+		}
+		if (!sharedCache) {
+			buildContext.setValue(getIndexKey(), sourceIndex);
+		}
+		metrics.time("scan", scanStart);
+		metrics.count("sourceFiles", sourceIndex.getFileCount());
+		getLog().info("Join:: Indexed " + sourceIndex + " in " + (System.nanoTime() - scanStart) / 1000000 + "ms");
+
+		// the modules that still exist will put themselves back
+		moduleMap.clear();
+		File mainTarget = makeTarget(mainFile);
+		Map<File, File> targets = new LinkedHashMap<>();
+		targets.put(appFile, makeTarget(appFile));
+		for (File module : findModules()) {
+			targets.put(module, makeTarget(module));
+		}
+		loadedModules.keySet().retainAll(targets.keySet());
+
+		Set<File> affected = delta == null ? buildCache.findAffected() : buildCache.findAffected(delta);
+		File chunkTarget = null;
+		if (commonThreshold > 0) {
+			chunkTarget = new File(target, commonChunk);
+			// the files that were in the chunk last time, until the modules show otherwise
+			setCommon(chunkTarget.exists() ? buildCache.getInputs(chunkTarget) : Collections.<File> emptySet());
+			setChunkReference();
+		}
+		List<Callable<Module>> loaders = new ArrayList<>();
+		for (Map.Entry<File, File> target : targets.entrySet()) {
+			if (!isUnchanged(target.getKey(), target.getValue(), false, affected)) {
+				loaders.add(moduleLoader(target.getKey()));
+			}
+		}
+		// process all the files except main - since they update the moduleMap array
+		List<Callable<Boolean>> processors = new ArrayList<>();
+		if (modulePermits != null && chunkTarget == null) {
+			// streaming - each module is built as soon as it's loaded, so none are held waiting for the rest
+			for (Callable<Module> loader : loaders) {
+				processors.add(moduleProcessor(loader));
+			}
+		} else {
+			List<Module> modules = invokeAll(loaders);
+			if (chunkTarget != null) {
+				modules = hoist(targets, modules, chunkTarget, affected);
+			}
+			for (Module module : modules) {
+				processors.add(moduleProcessor(loaded(module)));
+			}
+		}
+		int loaded = processors.size();
+		int count = 0;
+		for (Boolean built : invokeAll(processors)) {
+			if (built) {
+				count++;
+			}
+		}
+
+		// process the main file last - once the hashed names of all the modules are known
+		if (hashManifest != null) {
+			hashModules(targets.values());
+		}
+		if (!isUnchanged(mainFile, mainTarget, true, affected)) {
+			Module module = new Module(mainFile, true);
+			loaded++;
+			if (module.isStale()) {
+				processMain(module);
+				count++;
+			}
+		}
+		getLog().debug("Join:: Loaded " + loaded + " of " + (targets.size() + 1) + " modules");
+		metrics.count("modules", targets.size() + 1);
+		metrics.count("modulesLoaded", loaded);
+
+		List<File> outputs = new ArrayList<>(targets.values());
+		outputs.add(mainTarget);
+		if (chunkTarget != null) {
+			outputs.add(chunkTarget);
+		}
+		int orphans = deleteOrphans(outputs);
+		for (String cycle : new TreeSet<>(cycles)) {
+			getLog().warn("Join:: Circular dependency: " + cycle);
+		}
+		metrics.count("cycles", cycles.size());
+
+		buildCache.save();
+
+		if (count == 0 && orphans == 0) {
+			getLog().info("Join:: Nothing to do.");
+		}
+
+		metrics.count("modulesBuilt", count);
+		metrics.count("modulesUpToDate", targets.size() + 1 - count);
+		for (File target : outputs) {
+			if (!metrics.hasOutput(target) && target.exists()) {
+				metrics.output(target, false);
+				// in case gzip has just been turned on
+				if (precompressor != null) {
+					precompressor.submit(target, false);
 				}
 			}
+		}
+		if (hashManifest != null) {
+			hashCopy(mainTarget, false);
+			hashManifest.save();
+		}
+		if (precompressor != null) {
+			compressed();
+		}
+		report();
+		return count;
+	}
+
+	/**
+	 * Bring the index of the last build up to date with the files that have changed since. Unless sharedCache is set, the index is kept
+	 * by this mojo for the next build in the same execution, as join-watch does, and in the build context for the next incremental build
+	 * by another one. The source folder is walked if there isn't one
+	 */
+	private SourceIndex updateIndex(final Collection<File> changed, final Collection<File> deleted) throws IOException {
+		if (sharedCache) {
+			return SharedCache.update(source, changed, deleted);
+		}
+		Object previous = sourceIndex != null ? sourceIndex : buildContext.getValue(getIndexKey());
+		return previous instanceof SourceIndex ? ((SourceIndex) previous).update(changed, deleted) : SourceIndex.walk(source);
+	}
+
+	private String getIndexKey() {
+		return "angular-maven-plugin.join.index." + source.getAbsolutePath();
+	}
+
+	/**
+	 * Find the files included by more than commonThreshold modules and write them to the common chunk. The modules that weren't loaded
+	 * are counted from the files the build cache says they were built from. Changing which files are in the chunk changes every module,
+	 * so then the rest of the modules are loaded too
+	 * 
+	 * @return all the modules that have been loaded
+	 */
+	private List<Module> hoist(final Map<File, File> targets, final List<Module> modules, final File chunkTarget,
+			final Set<File> affected) throws Exception {
+		Map<File, Module> loaded = new HashMap<>();
+		for (Module module : modules) {
+			loaded.put(module.getFile(), module);
+		}
+		Map<File, Integer> counts = new TreeMap<>();
+		for (Map.Entry<File, File> target : targets.entrySet()) {
+			Module module = loaded.get(target.getKey());
+			Set<File> deps;
+			if (module != null) {
+				deps = module.getInternalDeps();
+			} else {
+				deps = buildCache.getInputs(target.getValue());
+				deps.remove(target.getKey().getAbsoluteFile());
+				deps.removeAll(findTemplates(target.getKey().getParentFile()));
+			}
+			for (File dep : deps) {
+				Integer count = counts.get(dep.getAbsoluteFile());
+				counts.put(dep.getAbsoluteFile(), count == null ? 1 : count + 1);
+			}
+		}
+
+		Set<File> hoisted = new TreeSet<>();
+		long saved = 0;
+		for (Map.Entry<File, Integer> count : counts.entrySet()) {
+			if (count.getValue() > commonThreshold) {
+				hoisted.add(count.getKey());
+				SourceIndex.Entry entry = sourceIndex.get(count.getKey());
+				saved += (count.getValue() - 1) * (entry == null ? 0 : entry.getSize());
+			}
+		}
 
-			// process the main file last
-			for (final Module module : modules) {
-				if (module.isMain() && module.isStale()) {
-					processMain(module);
-					count++;
+		boolean changed = !hoisted.equals(common);
+		if (changed) {
+			getLog().info("Join:: The files in the common chunk have changed, all modules will be built");
+			setCommon(hoisted);
+		}
+		metrics.count("commonFiles", hoisted.size());
+		metrics.count("commonBytesSaved", saved);
+		if (!hoisted.isEmpty()) {
+			getLog().info("Join:: " + hoisted.size() + " files used by more than " + commonThreshold + " modules are only in "
+					+ chunkTarget.getAbsolutePath() + ", saving " + saved + " bytes");
+		}
+		writeChunk(chunkTarget, affected);
+		if (hashManifest != null) {
+			hashCopy(chunkTarget, false);
+			String previous = chunkReference;
+			setChunkReference();
+			if (!changed && !chunkReference.equals(previous)) {
+				getLog().info("Join:: The hashed name of the common chunk has changed, all modules will be built");
+				changed = true;
+			}
+		}
+
+		List<Module> results = modules;
+		if (changed) {
+			List<Callable<Module>> loaders = new ArrayList<>();
+			for (File file : targets.keySet()) {
+				if (!loaded.containsKey(file)) {
+					loaders.add(moduleLoader(file));
 				}
 			}
+			results = new ArrayList<>(modules);
+			results.addAll(invokeAll(loaders));
+		}
+		return results;
+	}
 
-			// TODO delete files that should no longer be in target?
+	/**
+	 * Delete the outputs the build cache has a record of that are no longer generated - because their module has been deleted, or no
+	 * longer matches the modules pattern - along with their compressed and hashed copies. Only outputs built from files in the source
+	 * folder are deleted, in case another execution writes to the same target
+	 * 
+	 * @return the number of outputs deleted
+	 */
+	private int deleteOrphans(final List<File> outputs) {
+		Set<File> orphans = new TreeSet<>(buildCache.getOutputs());
+		for (File output : outputs) {
+			orphans.remove(output.getAbsoluteFile());
+		}
+		int deleted = 0;
+		for (File orphan : orphans) {
+			Set<File> inputs = buildCache.getInputs(orphan);
+			if (inputs.isEmpty() || sourceIndex.relativize(Iterables.getFirst(inputs, null)) == null) {
+				continue;
+			}
+			buildCache.remove(orphan);
+			if (hashManifest != null) {
+				hashManifest.remove(orphan);
+			}
+			if (Precompressor.sidecar(orphan).delete()) {
+				refresh(Precompressor.sidecar(orphan));
+			}
+			if (orphan.delete()) {
+				getLog().info("Join:: Deleted output that is no longer generated: " + orphan.getAbsolutePath());
+				refresh(orphan);
+				deleted++;
+			}
+		}
+		metrics.count("outputsDeleted", deleted);
+		return deleted;
+	}
 
-			if (count == 0) {
-				getLog().info("Join:: Nothing to do.");
-				return;
+	/**
+	 * @param directories true to include folders too - a deleted folder is reported rather than the files that were in it
+	 */
+	private List<File> scan(final Scanner scanner, final boolean directories) {
+		scanner.addDefaultExcludes();
+		scanner.scan();
+		List<File> results = new ArrayList<>();
+		for (String name : scanner.getIncludedFiles()) {
+			results.add(new File(scanner.getBasedir(), name));
+		}
+		if (directories) {
+			for (String name : scanner.getIncludedDirectories()) {
+				if (!name.isEmpty()) {
+					results.add(new File(scanner.getBasedir(), name));
+				}
+			}
+		}
+		return results;
+	}
+
+	private void setCommon(final Set<File> files) {
+		common = Collections.unmodifiableSet(new TreeSet<>(files));
+		hoisting = common.isEmpty() ? null : BuildCache.hash(commonChunk + "\n" + Joiner.on("\n").join(common));
+	}
+
+	/**
+	 * The chunk is referred to like the modules in the moduleMap - by its path relative to target, without the .js extension
+	 */
+	private void setChunkReference() {
+		String path = commonChunk.replace("\\", "/");
+		String hashed = hashManifest == null ? null : hashManifest.getPath(path);
+		chunkReference = commonChunkBase + (hashed == null ? path : hashed).replaceAll("\\.js$", "");
+	}
+
+	private void writeChunk(final File chunkTarget, final Set<File> affected) throws Exception {
+		if (common.isEmpty()) {
+			if (chunkTarget.delete()) {
+				getLog().info("Join:: Deleted unused common chunk: " + chunkTarget.getAbsolutePath());
+				Precompressor.sidecar(chunkTarget).delete();
+				if (hashManifest != null) {
+					hashManifest.remove(chunkTarget);
+				}
+				refresh(chunkTarget);
+			}
+			return;
+		}
+		if (buildCache.isUnchanged(chunkTarget, getChunkConfiguration(), affected)) {
+			getLog().debug("Join:: Up to date: " + chunkTarget.getAbsolutePath());
+			return;
+		}
+		Map<File, BuildCache.Input> inputs = new LinkedHashMap<>();
+		for (File file : common) {
+			inputs.put(file, getInput(contentCache.getContent(file)));
+		}
+		if (!buildCache.isUpToDate(chunkTarget, getChunkConfiguration(), inputs)) {
+			Map<String, String> references = new TreeMap<>();
+			Set<String> externalDeps = new TreeSet<>();
+			// the files of the chunk that others in it depend on go first
+			Set<File> ordered = new LinkedHashSet<>();
+			for (File file : common) {
+				findDependencies(file, ordered, externalDeps, references);
+				ordered.add(file);
+			}
+			ordered.retainAll(common);
+			Splice splice = new Splice().text(defineHeader(references, externalDeps, Collections.<String> emptyList()));
+			for (File file : ordered) {
+				rewrap(splice, contentCache.getContent(file), "(function() {", "\n})();\n", null);
+				splice.text("\n");
+			}
+			splice.text("\n});");
+			if (emit("common", splice, chunkTarget)) {
+				refresh(target);
+			}
+		}
+		buildCache.update(chunkTarget, getChunkConfiguration(), inputs);
+	}
+
+	/**
+	 * Make sure every module has a hashed copy, and point the moduleMap at them
+	 */
+	private void hashModules(final Collection<File> targets) throws MojoExecutionException {
+		for (File target : targets) {
+			hashCopy(target, false);
+		}
+		for (Map.Entry<String, String> module : moduleMap.entrySet()) {
+			String hashed = hashManifest.getPath(module.getValue().substring(1) + ".js");
+			if (hashed != null) {
+				module.setValue("/" + hashed.replaceAll("\\.js$", ""));
+			}
+		}
+	}
+
+	/**
+	 * Make the hashed copy of a target - skipped when the target wasn't written and already has one
+	 */
+	private void hashCopy(final File targetFile, final boolean written) throws MojoExecutionException {
+		if (!targetFile.exists() || !written && hashManifest.get(targetFile) != null) {
+			return;
+		}
+		try {
+			boolean copied = hashManifest.write(targetFile);
+			File copy = hashManifest.get(targetFile);
+			if (copied) {
+				metrics.count("hashedCopiesWritten", 1);
+				getLog().info("Join:: Wrote hashed copy: " + copy.getAbsolutePath());
+				refresh(copy);
+			}
+			if (precompressor != null) {
+				precompressor.submit(copy, copied);
+			}
+		} catch (final IOException ex) {
+			throw new MojoExecutionException("Join:: Unable to write hashed copy of: " + targetFile.getAbsolutePath(), ex);
+		}
+	}
+
+	/**
+	 * Wait for the sidecars of this build to be written, and log how well each output compressed
+	 */
+	private void compressed() throws IOException, InterruptedException {
+		for (Precompressor.Result result : precompressor.finish()) {
+			// the time spent on the worker
+			metrics.time("compress", System.nanoTime() - result.getNanos());
+			metrics.output(result.getSidecar(), result.isWritten());
+			metrics.count(result.isWritten() ? "sidecarsWritten" : "sidecarsUnchanged", 1);
+			getLog().info("Join:: Compressed " + result.getFile().getAbsolutePath() + ": " + result);
+			if (result.isWritten()) {
+				refresh(result.getSidecar());
+			}
+		}
+	}
+
+	/**
+	 * Write the report, log the summary and check the budgets of the build that just finished
+	 */
+	private void report() throws IOException, MojoExecutionException {
+		metrics.finish();
+		List<String> violations = metrics.checkBudgets(maxOutputSize, maxTime);
+		if (report != null) {
+			metrics.writeReport(report);
+		}
+		if (logMetrics) {
+			for (String line : metrics.getSummary()) {
+				getLog().info("Join:: " + line);
+			}
+		}
+		for (String violation : violations) {
+			if (failOnBudget) {
+				getLog().error("Join:: Budget exceeded: " + violation);
+			} else {
+				getLog().warn("Join:: Budget exceeded: " + violation);
+			}
+		}
+		if (failOnBudget && !violations.isEmpty()) {
+			throw new MojoExecutionException("Join:: " + violations.size() + " budgets exceeded");
+		}
+	}
+
+	/**
+	 * Release everything set up by initialize
+	 */
+	void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		if (precompressor != null) {
+			precompressor.close();
+			precompressor = null;
+		}
+		hashManifest = null;
+		if (contentCache != null) {
+			getLog().info("Join:: Content cache: " + contentCache);
+			contentCache = null;
+		}
+		if (outputWriter != null) {
+			getLog().info("Join:: Output files: " + outputWriter);
+			outputWriter = null;
+		}
+	}
+
+	File getSource() {
+		return source;
+	}
+
+	/**
+	 * Keep the modules that have been loaded from one build to the next, so that a module none of whose files have changed isn't loaded
+	 * again when it has to be built - e.g. because the files in the common chunk have changed. Ignored when maxModulesInMemory is set
+	 */
+	void keepModules() {
+		keepModules = maxModulesInMemory <= 0;
+	}
+
+	/**
+	 * While a task is running on a worker thread its log output is buffered, so that it can be written out in submission order
+	 */
+	@Override
+	public Log getLog() {
+		BufferedLog log = taskLog.get();
+		return log == null ? super.getLog() : log;
+	}
+
+	private int getThreadCount() {
+		return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	private Callable<Module> moduleLoader(final File file) {
+		return new Callable<Module>() {
+			@Override
+			public Module call() throws Exception {
+				Module module = loadedModules.get(file);
+				if (module != null && module.isUnaffected()) {
+					getLog().debug("Join:: Reusing module: " + shorten(file));
+					return module;
+				}
+				module = new Module(file, false);
+				if (keepModules) {
+					loadedModules.put(file, module);
+				}
+				return module;
+			}
+		};
+	}
+
+	private Callable<Module> loaded(final Module module) {
+		return new Callable<Module>() {
+			@Override
+			public Module call() {
+				return module;
+			}
+		};
+	}
+
+	/**
+	 * Build a module if it's stale, holding a permit from the time it's loaded until its output has been written when
+	 * maxModulesInMemory is set, and then let go of everything it holds
+	 * 
+	 * @return true if the module was built
+	 */
+	private Callable<Boolean> moduleProcessor(final Callable<Module> loader) {
+		return new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				if (modulePermits != null) {
+					modulePermits.acquire();
+				}
+				try {
+					Module module = loader.call();
+					boolean stale = module.isStale();
+					if (stale) {
+						processModule(module);
+					}
+					if (!keepModules) {
+						module.release();
+					}
+					return stale;
+				} finally {
+					if (modulePermits != null) {
+						modulePermits.release();
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return true if the build cache shows the target was built, with the current configuration, from files that haven't been modified
+	 *         since and that the module still has the same templates - without reading any of its files
+	 */
+	private boolean isUnchanged(final File file, final File target, final boolean main, final Set<File> affected) {
+		if (!buildCache.isUnchanged(target, getConfiguration(main), affected)
+				|| !buildCache.getInputs(target).containsAll(findTemplates(file.getParentFile()))) {
+			return false;
+		}
+		getLog().debug("Join:: Up to date: " + target.getAbsolutePath());
+		return true;
+	}
+
+	/**
+	 * The main file also depends on where every module ends up, and the modules depend on where the chunk is loaded from
+	 */
+	private String getConfiguration(final boolean main) {
+		if (main) {
+			return BuildCache.hash(configuration + new TreeMap<>(moduleMap));
+		}
+		if (hoisting != null) {
+			return BuildCache.hash(getChunkConfiguration() + chunkReference);
+		}
+		return getChunkConfiguration();
+	}
+
+	/**
+	 * The common chunk depends on which files are in it
+	 */
+	private String getChunkConfiguration() {
+		return hoisting == null ? configuration : BuildCache.hash(configuration + hoisting);
+	}
+
+	private List<File> findTemplates(final File baseDir) {
+		final List<File> results = sourceIndex.find(baseDir, templatesArray, null, true);
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Run the tasks, on the executor if there is one, and return their results in the order the tasks were supplied. When running in
+	 * parallel the log output of each task is replayed in that order too, and the first failure (in task order) is rethrown
+	 */
+	private <T> List<T> invokeAll(final List<Callable<T>> tasks) throws Exception {
+		final List<T> results = new ArrayList<>();
+		if (executor == null) {
+			for (Callable<T> task : tasks) {
+				results.add(task.call());
+			}
+			return results;
+		}
+
+		final List<Future<T>> futures = new ArrayList<>();
+		final List<BufferedLog> logs = new ArrayList<>();
+		for (final Callable<T> task : tasks) {
+			final BufferedLog log = new BufferedLog(super.getLog());
+			logs.add(log);
+			futures.add(executor.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					taskLog.set(log);
+					try {
+						return task.call();
+					} finally {
+						taskLog.remove();
+					}
+				}
+			}));
+		}
+
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					logs.get(i).flush();
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+				logs.get(i).flush();
 			}
-		} catch (Exception e) {
-			getLog().error(e);
-			throw new MojoExecutionException("Join:: failed.", e);
 		} finally {
-			getLog().info("Join:: took " + (System.currentTimeMillis() - start) + "ms");
+			for (Future<T> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * BuildContext implementations are not guaranteed to be thread safe, so all refreshes go through here
+	 */
+	private void refresh(final File file) {
+		long start = metrics.start();
+		synchronized (buildContext) {
+			buildContext.refresh(file);
 		}
+		metrics.time("refresh", start);
 	}
 
 	private String shorten(final File file) {
@@ -176,102 +1006,216 @@ public class JoinMojo extends AbstractMojo {
 	}
 
 	private void processMain(final Module main) throws Exception {
-		String contents = Files.toString(mainFile, Charsets.UTF_8).trim();
+		String contents = contentCache.get(mainFile);
 
 		// getLog().info("moduleMap: " + moduleMap);
-		for (Map.Entry<String, String> entry : moduleMap.entrySet()) {
-			// getLog().info("Replacing: " + entry.getKey() + " with " + entry.getValue());
-			contents = contents.replace(entry.getKey(), entry.getValue());
-		}
+		contents = new PathRewriter(moduleMap).rewrite(contents);
 
 		// finally emit the output file
-		emit("main", contents, main.getTarget());
-
-		buildContext.refresh(target);
+		if (emit("main", new Splice().text(contents), main.getTarget())) {
+			refresh(target);
+		}
+		main.built();
 	}
 
-	private void processModule(final Module module, final Map<String, String> moduleMap) throws Exception {
+	private void processModule(final Module module) throws Exception {
 		// getLog().info("moduleName: " + moduleName);
-		List<String> lines = new ArrayList<>();
+		Splice splice = new Splice();
 
-		lines.add("define([ \""
-				+ Joiner.on("\", \"").join(
-						Iterables.concat(module.getReferences().keySet(),
-								Sets.difference(module.getExternalDeps(), module.getReferences().keySet()))) + "\" ], function("
-				+ Joiner.on(", ").join(module.getReferences().values()) + ") {\n");
+		// the files in the common chunk are loaded from it instead
+		List<String> chunks = new ArrayList<>();
+		if (!Collections.disjoint(module.getInternalDeps(), common)) {
+			chunks.add(chunkReference);
+		}
+		Map<String, String> references = module.getReferences();
+		Set<String> externalDeps = module.getExternalDeps();
+		if (!chunks.isEmpty()) {
+			// the chunk loads what the files in it depend on, so only what the rest of the files depend on is needed here
+			references = new TreeMap<>();
+			externalDeps = new TreeSet<>();
+			findDependencies(module.getFile(), common, new LinkedHashSet<File>(), new LinkedHashSet<File>(), externalDeps, references);
+		}
+		splice.text(defineHeader(references, externalDeps, chunks));
 		for (File dep : module.getInternalDeps()) {
-			lines.add(module.getContents(dep).replaceAll("^\\s*define.*?function\\s*\\([^\\)]*\\)\\s*\\{", "(function() {")
-					.replaceAll("\\s*\\}\\s*\\)\\s*;?\\s*$", "\n})();\n"));
+			if (!common.contains(dep)) {
+				rewrap(splice, contentCache.getContent(dep), "(function() {", "\n})();\n", null);
+				splice.text("\n");
+			}
 		}
-		// process the templates
+		// process the templates - escaped straight into the output as it's written
 		if (module.hasTemplates()) {
-			lines.add("angular.module(\"" + module.getName() + "Templates\", []).run([\"$templateCache\", function($templateCache) {");
-			for (final File file : module.getTemplates()) {
-				String cacheKey = prefix + shorten(file);
-
-				List<String> fileLines = null;
-				try {
-					fileLines = FileUtils.readLines(file);
-				} catch (IOException ex) {
-					throw new MojoExecutionException("Join:: Unable to read template file: " + file.getAbsolutePath(), ex);
-				}
-				if (fileLines.isEmpty()) {
-					lines.add("\t$templateCache.put(\"" + cacheKey + "\", \"\");");
-				} else {
-					lines.add("\t$templateCache.put(\"" + cacheKey + "\",");
-					for (String line : fileLines) {
-						lines.add("\t\"" + line.replace("\\", "\\\\").replace("\"", "\\\"") + "\\n\" +");
+			final String header = "angular.module(\"" + module.getName()
+					+ "Templates\", []).run([\"$templateCache\", function($templateCache) {\n";
+			final List<File> templates = module.getTemplates();
+			splice.stream(new Splice.Producer() {
+				@Override
+				public void writeTo(final Writer out) throws IOException {
+					TemplateEscaper escaper = new TemplateEscaper(Charsets.UTF_8);
+					out.write(header);
+					if (table) {
+						TemplateEscaper.writeTableStart(out, "\n");
 					}
-					lines.set(lines.size() - 1, StringUtils.chomp(lines.get(lines.size() - 1), "\\n\" +") + "\");");
+					for (int i = 0; i < templates.size(); i++) {
+						File file = templates.get(i);
+						long start = metrics.start();
+						try {
+							if (table) {
+								escaper.writeEntry(file, prefix + shorten(file), out);
+							} else {
+								escaper.writePut(file, "\"" + prefix + shorten(file) + "\"", out, "\n");
+							}
+						} catch (IOException ex) {
+							throw new IOException("Join:: Unable to read template file: " + file.getAbsolutePath(), ex);
+						}
+						metrics.time("escape", start);
+						metrics.count("templates", 1);
+						// the entries of a table are separated by commas
+						out.write(!table ? "\n\n" : i < templates.size() - 1 ? ",\n" : "\n");
+					}
+					if (table) {
+						TemplateEscaper.writeTableEnd(out, "\n");
+						out.write("\n");
+					}
+					out.write("}]);\n\n");
 				}
-
-				lines.add("");
-			}
-			lines.add("}]);\n");
+			});
 		}
 
 		// now the module - last because of the return
-		String moduleContents = module.getContents().replaceAll("^\\s*define.*?function\\s*\\([^\\)]*\\)\\s*\\{", "return (function() {")
-				.replaceAll("\\s*\\}\\s*\\)\\s*;?\\s*$", "\n})();");
-		if (module.hasTemplates()) {
-			moduleContents = moduleContents.replaceFirst(".module\\s*\\(([^,]+)\\s*,\\s*\\[\\s*([^\\]]+)\\]",
-					".module($1, [ \"" + module.getName() + "Templates\", $2]")//
-					.replaceFirst(".module\\s*\\(([^,]+)\\s*,\\s*\\[\\s*\\]", ".module($1, [ \"" + module.getName() + "Templates\" ]");
-		}
-		lines.add(moduleContents);
+		rewrap(splice, contentCache.getContent(module.getFile()), "return (function() {", "\n})();",
+				module.hasTemplates() ? module.getName() + "Templates" : null);
 
 		// the end for the define
-		lines.add("});");
+		splice.text("\n});");
 
 		// finally emit the output file
-		emit(module.getName(), Joiner.on("\n").join(lines), module.getTarget());
+		if (emit(module.getName(), splice, module.getTarget())) {
+			refresh(target);
+		}
+		module.built();
+	}
+
+	/**
+	 * @return the start of a define with the external dependencies that are referenced first, then the rest and any others - each in
+	 *         the order they are supplied in, which is sorted so the same dependencies always give the same header
+	 */
+	private String defineHeader(final Map<String, String> references, final Set<String> externalDeps, final List<String> others) {
+		return "define([ \""
+				+ Joiner.on("\", \"").join(
+						Iterables.concat(references.keySet(), Sets.difference(externalDeps, references.keySet()), others))
+				+ "\" ], function(" + Joiner.on(", ").join(references.values()) + ") {\n\n";
+	}
+
+	/**
+	 * Append the body of the define function of a file to the splice, with a new header and trailer. If templatesModule is supplied then
+	 * it is added to the dependencies of the first angular module declared
+	 */
+	private void rewrap(final Splice splice, final Content content, final String header, final String trailer,
+			final String templatesModule) {
+		Define define = content.getDefine();
+		String text = content.getText();
+		int start = 0;
+		int end = text.length();
+		if (define != null) {
+			splice.text(text.substring(0, define.getHeaderStart())).text(header);
+			start = define.getBodyStart();
+			end = define.getBodyEnd();
+		}
+
+		if (templatesModule == null) {
+			splice.range(content, start, end);
+		} else {
+			Matcher withDependencies = MODULE_WITH_DEPENDENCIES.matcher(text).region(start, end);
+			Matcher withoutDependencies = MODULE_WITHOUT_DEPENDENCIES.matcher(text).region(start, end);
+			boolean with = withDependencies.find();
+			boolean without = false;
+			if (with) {
+				// the second replacement is applied after the first, so can only match outside of it
+				without = withoutDependencies.region(start, withDependencies.start()).find()
+						|| withoutDependencies.region(withDependencies.end(), end).find();
+			} else {
+				without = withoutDependencies.find();
+			}
+
+			int position = start;
+			if (without && (!with || withoutDependencies.start() < withDependencies.start())) {
+				position = injectTemplates(splice, content, position, withoutDependencies, ".module(" + withoutDependencies.group(1)
+						+ ", [ \"" + templatesModule + "\" ]");
+				without = false;
+			}
+			if (with) {
+				position = injectTemplates(splice, content, position, withDependencies, ".module(" + withDependencies.group(1) + ", [ \""
+						+ templatesModule + "\", " + withDependencies.group(2) + "]");
+			}
+			if (without) {
+				position = injectTemplates(splice, content, position, withoutDependencies, ".module(" + withoutDependencies.group(1)
+						+ ", [ \"" + templatesModule + "\" ]");
+			}
+			splice.range(content, position, end);
+		}
 
-		buildContext.refresh(target);
+		if (define != null && define.hasTrailer()) {
+			splice.text(trailer);
+		}
+	}
+
+	private int injectTemplates(final Splice splice, final Content content, final int position, final Matcher match,
+			final String replacement) {
+		splice.range(content, position, match.start()).text(replacement);
+		return match.end();
 	}
 
-	private void emit(final String moduleName, final String source, final File targetFile) throws MojoExecutionException {
+	/**
+	 * @return true if the target file was written, false if it already had the same content
+	 */
+	private boolean emit(final String moduleName, final Splice splice, final File targetFile) throws MojoExecutionException {
+		long start = metrics.start();
 		try {
-			getLog().info("Join:: Writing output file: " + targetFile.getAbsolutePath());
-			Files.write(source, targetFile, Charsets.UTF_8);
+			boolean written = outputWriter.write(targetFile, splice.compact(compact));
+			metrics.time("emit", start);
+			metrics.output(targetFile, written);
+			if (compact) {
+				compacted(targetFile, splice.getCompacted());
+			}
+			if (written) {
+				metrics.count("outputsWritten", 1);
+				metrics.count("bytesWritten", targetFile.length());
+				getLog().info("Join:: Wrote output file: " + targetFile.getAbsolutePath());
+				if (precompressor != null) {
+					precompressor.submit(targetFile, true);
+				}
+				if (hashManifest != null) {
+					hashCopy(targetFile, true);
+				}
+				return true;
+			}
+			metrics.count("outputsUnchanged", 1);
+			getLog().info("Join:: Output file unchanged: " + targetFile.getAbsolutePath());
+			if (precompressor != null) {
+				precompressor.submit(targetFile, false);
+			}
+			if (hashManifest != null) {
+				hashCopy(targetFile, false);
+			}
+			return false;
 		} catch (final IOException ex) {
 			throw new MojoExecutionException("Join:: Unable to write output file: " + targetFile.getAbsolutePath(), ex);
 		}
 	}
 
-	private List<File> findModules() {
-		final DirectoryScanner scanner = new DirectoryScanner();
-		scanner.setBasedir(source);
-		return findFiles(scanner);
+	private void compacted(final File targetFile, final long saved) {
+		long size = targetFile.length() + saved;
+		metrics.count("bytesCompacted", saved);
+		getLog().info("Join:: Compacted " + targetFile.getAbsolutePath() + ": saved " + saved + " of " + size + " bytes ("
+				+ String.format(Locale.ROOT, "%.1f%%", size == 0 ? 0.0 : saved * 100.0 / size) + ")");
 	}
 
-	private List<File> findFiles(final Scanner scanner) {
-		final List<File> results = new ArrayList<File>();
-		scanner.setIncludes(modulesArray);
-		scanner.scan();
-		for (final String name : scanner.getIncludedFiles()) {
-			results.add(new File(scanner.getBasedir(), name));
-		}
-		return results;
+	private static BuildCache.Input getInput(final Content content) {
+		return new BuildCache.Input(content.getHash(), content.getLength(), content.getLastModified());
+	}
+
+	private List<File> findModules() {
+		return sourceIndex.find(source, modulesArray, null, false);
 	}
 
 	private class Module {
@@ -279,22 +1223,21 @@ public class JoinMojo extends AbstractMojo {
 		private final File target;
 		private final boolean main;
 		private final String name;
-		private final String contents;
-		private final Map<String, String> references = new HashMap<>();
-		private final Set<String> externalDeps = new HashSet<>();
-		private final Set<File> internalDeps = new HashSet<>();
-		private final Map<File, String> internalDepContents = new HashMap<>();
+		private final Map<String, String> references = new TreeMap<>();
+		private final Set<String> externalDeps = new TreeSet<>();
+		// in the order they're inlined - each after the files it depends on
+		private final Set<File> internalDeps = new LinkedHashSet<>();
 		private final List<File> templates;
+		private Map<File, BuildCache.Input> inputs;
 
 		private Module(final File file, final boolean main) throws IOException {
 			this.file = file;
 			this.target = makeTarget(file);
 			this.main = main;
 			name = file.getAbsolutePath().replace(file.getParent() + "/", "").replaceAll("\\.js$", "");
-			contents = Files.toString(file, Charsets.UTF_8).trim();
 			templates = findTemplates(file.getParentFile());
 			if (!main) {
-				findDependencies(file, contents, internalDeps, internalDepContents, externalDeps, references);
+				findDependencies(file, internalDeps, externalDeps, references);
 			}
 		}
 
@@ -305,16 +1248,8 @@ public class JoinMojo extends AbstractMojo {
 			return target;
 		}
 
-		private boolean isMain() {
-			return main;
-		}
-
-		private String getContents() {
-			return contents;
-		}
-
-		private String getContents(final File dep) {
-			return internalDepContents.get(dep);
+		private File getFile() {
+			return file;
 		}
 
 		private String getName() {
@@ -341,90 +1276,156 @@ public class JoinMojo extends AbstractMojo {
 			return !templates.isEmpty();
 		}
 
-		private boolean isStale() {
-			if (!target.exists()) {
-				return true;
+		/**
+		 * @return the state of every file this module is built from
+		 */
+		private Map<File, BuildCache.Input> getInputs() throws IOException {
+			if (inputs == null) {
+				inputs = new LinkedHashMap<>();
+				inputs.put(file, getInput(contentCache.getContent(file)));
+				for (File dep : internalDeps) {
+					inputs.put(dep, getInput(contentCache.getContent(dep)));
+				}
+				for (File template : templates) {
+					long size = template.length();
+					long lastModified = template.lastModified();
+					inputs.put(template, new BuildCache.Input(BuildCache.hash(template), size, lastModified));
+				}
 			}
+			return inputs;
+		}
 
-			long result = file.lastModified();
-			for (File file : internalDeps) {
-				result = Math.max(result, file.lastModified());
-			}
-			for (File file : templates) {
-				result = Math.max(result, file.lastModified());
-			}
-			return result > target.lastModified();
-		}
-
-		private Set<File> findDependencies(final File startFile, final String contents, final Set<File> internal,
-				final Map<File, String> contentsMap, final Set<String> external, final Map<String, String> references) throws IOException {
-			// getLog().info("Checking file: " + startFile.getAbsolutePath());
-			File startDir = startFile.getParentFile();
-			GlobMatcher globMatcher = new GlobMatcher(source.getParentFile(), startDir, joinableArray);
-			try {
-				Matcher matcher = Pattern.compile(
-						"^\\s*define\\s*\\(\\s*\\[\\s*([^\\]]+)\\s*\\]\\s*,\\s*function\\s*\\(([^\\)]*)\\)\\s*\\{.*$", Pattern.DOTALL)
-						.matcher(contents);
-				if (matcher.matches()) {
-					String[] deps = matcher.group(1).split("\\s*,\\s*");
-					String[] refs = matcher.group(2).split("\\s*,\\s*");
-					// getLog().info("Found deps: " + Arrays.asList(deps) + ", refs: " + Arrays.asList(refs));
-					int i = 0;
-					for (String dep : deps) {
-						File depFile = globMatcher.makeFile(dequote(dep));
-						if (globMatcher.matches(depFile)) {
-							if (!internal.contains(depFile)) {
-								String depContents = Files.toString(depFile, Charsets.UTF_8).trim();
-								internal.add(depFile);
-								contentsMap.put(depFile, depContents);
-								findDependencies(depFile, depContents, internal, contentsMap, external, references);
-							}
-						} else {
-							external.add(dequote(dep));
-							if (i < refs.length) {
-								references.put(dequote(dep), refs[i]);
-							}
-							// getLog().info(
-							// "Processed external dependency: " + dep + ", external: " + external + ", references: " + references);
-						}
-						i++;
-					}
-					// getLog().info("Found define clause, dependency: " + internal);
-				} else {
-					getLog().warn("Join:: No define found, contents: " + contents);
-				}
-				return internal;
-			} catch (Exception e) {
-				throw new RuntimeException("oops, contents: " + contents, e);
+		private boolean isStale() throws IOException {
+			if (buildCache.isUpToDate(target, getConfiguration(main), getInputs())) {
+				// the files were only touched - record their new modification times so they aren't read again next time
+				built();
+				getLog().debug("Join:: Up to date: " + target.getAbsolutePath());
+				return false;
 			}
+			return true;
+		}
 
+		private void built() throws IOException {
+			buildCache.update(target, getConfiguration(main), getInputs());
 		}
 
-		private String dequote(final String quoted) {
-			String input = StringUtils.trim(quoted);
-			if (input.length() > 1 && input.startsWith("'") && input.endsWith("'")) {
-				return StringUtils.strip(input, "'");
+		/**
+		 * @return true if it's known that none of the files of the module have changed since it was loaded, and it has the same
+		 *         templates
+		 */
+		private boolean isUnaffected() {
+			if (delta == null || isChanged(file) || !templates.equals(findTemplates(file.getParentFile()))) {
+				return false;
 			}
-			if (input.length() > 1 && input.startsWith("\"") && input.endsWith("\"")) {
-				return StringUtils.strip(input, "\"");
+			for (File dep : Iterables.concat(internalDeps, templates)) {
+				if (isChanged(dep)) {
+					return false;
+				}
 			}
-			return input;
+			return true;
 		}
 
-		private List<File> findTemplates(final File baseDir) {
-			final DirectoryScanner scanner = new DirectoryScanner();
-			scanner.setBasedir(baseDir);
-			scanner.setIncludes(templatesArray);
-			scanner.addDefaultExcludes();
-			scanner.scan();
-			final List<File> results = new ArrayList<File>();
-			for (final String name : scanner.getIncludedFiles()) {
-				results.add(new File(scanner.getBasedir(), name));
+		/**
+		 * @return true if the file, or a folder it's in, is one of those that have changed
+		 */
+		private boolean isChanged(final File file) {
+			for (File f = file.getAbsoluteFile(); f != null; f = f.getParentFile()) {
+				if (delta.contains(f)) {
+					return true;
+				}
 			}
-			Collections.sort(results);
-			return results;
+			return false;
+		}
+
+		/**
+		 * Let go of everything but the name and target once the module has been built - including the contents of its file, when only
+		 * a limited number of modules may be held in memory, since nothing else uses them
+		 */
+		private void release() throws IOException {
+			references.clear();
+			externalDeps.clear();
+			internalDeps.clear();
+			templates.clear();
+			inputs = null;
+			if (modulePermits != null && !sharedCache) {
+				contentCache.release(file);
+			}
+		}
+	}
+
+	/**
+	 * Add the joinable files that startFile depends on, directly or not, to internal - each one after the files it depends on itself, so
+	 * that inlining them in that order puts every file after the code it relies on. The same files always give the same order, and a
+	 * cycle is reported with the files that make it up and then broken where it closes
+	 */
+	private Set<File> findDependencies(final File startFile, final Set<File> internal, final Set<String> external,
+			final Map<String, String> references) throws IOException {
+		return findDependencies(startFile, Collections.<File> emptySet(), new LinkedHashSet<File>(), internal, external, references);
+	}
+
+	/**
+	 * @param hoisted files whose dependencies aren't looked for - they are added to internal, but not what they depend on
+	 * @param path the files between the file the search started at and startFile
+	 */
+	private Set<File> findDependencies(final File startFile, final Set<File> hoisted, final Set<File> path, final Set<File> internal,
+			final Set<String> external, final Map<String, String> references) throws IOException {
+		// getLog().info("Checking file: " + startFile.getAbsolutePath());
+		File startDir = startFile.getParentFile();
+		GlobMatcher globMatcher = GlobMatcher.get(source.getParentFile(), joinableArray);
+		Content content = contentCache.getContent(startFile);
+		long start = metrics.start();
+		Define define = content.getDefine();
+		metrics.time("parse", start);
+		if (define != null) {
+			List<String> refs = define.getParameters();
+			// getLog().info("Found deps: " + define.getDependencies() + ", refs: " + refs);
+			path.add(startFile);
+			int i = 0;
+			for (String dep : define.getDependencies()) {
+				File depFile = globMatcher.makeFile(startDir, dep);
+				if (globMatcher.matches(depFile)) {
+					if (path.contains(depFile)) {
+						warnCycle(path, depFile);
+					} else if (!internal.contains(depFile)) {
+						if (!hoisted.contains(depFile)) {
+							findDependencies(depFile, hoisted, path, internal, external, references);
+						}
+						internal.add(depFile);
+					}
+				} else {
+					external.add(dep);
+					if (i < refs.size()) {
+						references.put(dep, refs.get(i));
+					}
+					// getLog().info(
+					// "Processed external dependency: " + dep + ", external: " + external + ", references: " + references);
+				}
+				i++;
+			}
+			path.remove(startFile);
+			// getLog().info("Found define clause, dependency: " + internal);
+		} else {
+			getLog().warn("Join:: No define found, contents: " + contentCache.get(startFile));
 		}
+		return internal;
+	}
 
+	/**
+	 * Record a cycle to be reported when the build finishes - the same cycle is found from every file in it, and by every module that
+	 * includes it, so it is started from its first file in path order to only be reported once
+	 */
+	private void warnCycle(final Set<File> path, final File closing) {
+		List<String> cycle = new ArrayList<>();
+		boolean inCycle = false;
+		for (File file : path) {
+			inCycle |= file.equals(closing);
+			if (inCycle) {
+				cycle.add(shorten(file));
+			}
+		}
+		Collections.rotate(cycle, -cycle.indexOf(Collections.min(cycle)));
+		cycle.add(cycle.get(0));
+		cycles.add(Joiner.on(" -> ").join(cycle));
 	}
 
 	private File makeTarget(final File file) {
@@ -0,0 +1,97 @@
+package com.keithbranton.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * The join goal, kept running - the source folder is watched and the modules affected by each batch of changes are built again.
+ * 
+ * The changes the watcher reports are applied to the index of the source folder, and looked up in the build cache's index of the
+ * modules each file is used by, so the source folder is only walked again when the watcher loses track of what changed. The contents
+ * of the source files and the modules that have been loaded are kept in memory between builds, so only the modules using the files
+ * that changed are loaded again. Stop it with Ctrl-C.
+ * 
+ * @author Keith Branton
+ */
+@Mojo(name = "join-watch")
+public class JoinWatchMojo extends JoinMojo {
+
+	/**
+	 * How long, in milliseconds, the source folder must be quiet after a change before building - so a burst of changes, like a git
+	 * checkout, only causes one build
+	 */
+	@Parameter(defaultValue = "50")
+	private int debounce;
+
+	// set when a build fails part way through, so the next one checks everything
+	private boolean failed;
+
+	/** @see org.apache.maven.plugin.Mojo#execute() */
+	@Override
+	public void execute() throws MojoExecutionException {
+		try {
+			initialize();
+			keepModules();
+			try (SourceWatcher watcher = new SourceWatcher(getSource())) {
+				rebuild(null);
+				getLog().info("Join:: Watching " + watcher.getDirectoryCount() + " folders under " + watcher.getRoot().getAbsolutePath()
+						+ " for changes");
+				while (true) {
+					Set<File> changed = watcher.await(debounce);
+					if (changed == null) {
+						getLog().info("Join:: Lost track of which files changed");
+					} else {
+						getLog().info("Join:: Detected " + changed.size() + " changed files");
+						for (File file : changed) {
+							getLog().debug("Join:: Changed: " + file.getAbsolutePath());
+						}
+					}
+					rebuild(changed);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			throw new MojoExecutionException("Join:: Unable to watch the source folder: " + getSource().getAbsolutePath(), e);
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * @param events the files that were created, changed or deleted, or null if that isn't known
+	 */
+	private void rebuild(final Set<File> events) {
+		long start = System.currentTimeMillis();
+		List<File> changed = null;
+		List<File> deleted = null;
+		if (events != null && !failed) {
+			changed = new ArrayList<>();
+			deleted = new ArrayList<>();
+			for (File file : events) {
+				// a folder's files are reported separately
+				if (file.isFile()) {
+					changed.add(file);
+				} else if (!file.exists()) {
+					deleted.add(file);
+				}
+			}
+		}
+		try {
+			build(changed, deleted);
+			failed = false;
+		} catch (Exception e) {
+			// keep watching - the next change may well fix it
+			failed = true;
+			getLog().error("Join:: failed.", e);
+		}
+		getLog().info("Join:: took " + (System.currentTimeMillis() - start) + "ms");
+	}
+}
@@ -0,0 +1,82 @@
+package com.keithbranton.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Writes generated files so that they are only touched when their content actually changes. New content is written to a temporary
+ * file alongside the target, compared with the existing target, and then either discarded or atomically renamed over the target - so
+ * nothing watching the target ever sees a partially written file or an mtime change without a content change.
+ * 
+ * @author Keith Branton
+ */
+public class OutputWriter {
+	/**
+	 * Something that can write the new content of an output
+	 */
+	public interface Generator {
+		/**
+		 * @return the number of bytes written
+		 */
+		long writeTo(File file) throws IOException;
+	}
+
+	private final AtomicInteger written = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+
+	/**
+	 * @return true if the target was written, false if its content was already identical
+	 */
+	public boolean write(final File target, final Generator generator) throws IOException {
+		File parent = target.getAbsoluteFile().getParentFile();
+		if (!parent.exists()) {
+			parent.mkdirs();
+		}
+		File temp = File.createTempFile(target.getName() + ".", ".tmp", parent);
+		try {
+			generator.writeTo(temp);
+			if (isIdentical(temp, target)) {
+				skipped.incrementAndGet();
+				return false;
+			}
+			try {
+				java.nio.file.Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				java.nio.file.Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			written.incrementAndGet();
+			return true;
+		} finally {
+			if (temp.exists()) {
+				temp.delete();
+			}
+		}
+	}
+
+	private boolean isIdentical(final File temp, final File target) throws IOException {
+		if (!target.isFile() || target.length() != temp.length()) {
+			return false;
+		}
+		return Files.hash(temp, Hashing.sha1()).equals(Files.hash(target, Hashing.sha1()));
+	}
+
+	public int getWritten() {
+		return written.get();
+	}
+
+	public int getSkipped() {
+		return skipped.get();
+	}
+
+	@Override
+	public String toString() {
+		return written + " written, " + skipped + " unchanged";
+	}
+}
@@ -0,0 +1,121 @@
+package com.keithbranton.mojo;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Replaces any number of strings in a single pass over the input, using an Aho-Corasick automaton built once from the replacements.
+ * 
+ * Where matches overlap the leftmost wins, and of those starting at the same place the longest wins - so the result doesn't depend on
+ * the order of the replacements, and a key that is a prefix of another key can't clobber it. Replaced text is never rescanned.
+ * 
+ * @author Keith Branton
+ */
+public class PathRewriter {
+	private static class Node {
+		private final Map<Character, Node> children = new HashMap<>();
+		private final int depth;
+		private Node failure;
+		// the nearest node reachable through failure links that completes a key
+		private Node dictionary;
+		private String replacement;
+
+		private Node(final int depth) {
+			this.depth = depth;
+		}
+	}
+
+	private final Node root = new Node(0);
+
+	public PathRewriter(final Map<String, String> replacements) {
+		for (Map.Entry<String, String> entry : replacements.entrySet()) {
+			String key = entry.getKey();
+			if (key == null || key.isEmpty()) {
+				continue;
+			}
+			Node node = root;
+			for (int i = 0; i < key.length(); i++) {
+				Node child = node.children.get(key.charAt(i));
+				if (child == null) {
+					child = new Node(i + 1);
+					node.children.put(key.charAt(i), child);
+				}
+				node = child;
+			}
+			node.replacement = entry.getValue();
+		}
+
+		// breadth first so that the failure link of every shallower node is known
+		Queue<Node> queue = new ArrayDeque<>();
+		root.failure = root;
+		for (Node child : root.children.values()) {
+			child.failure = root;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			Node node = queue.remove();
+			for (Map.Entry<Character, Node> entry : node.children.entrySet()) {
+				Node child = entry.getValue();
+				child.failure = next(node.failure, entry.getKey());
+				child.dictionary = child.failure.replacement != null ? child.failure : child.failure.dictionary;
+				queue.add(child);
+			}
+		}
+	}
+
+	private Node next(final Node from, final char c) {
+		Node node = from;
+		while (true) {
+			Node child = node.children.get(c);
+			if (child != null) {
+				return child;
+			}
+			if (node == root) {
+				return root;
+			}
+			node = node.failure;
+		}
+	}
+
+	/**
+	 * @return the input with every occurrence of a key replaced by its value
+	 */
+	public String rewrite(final CharSequence input) {
+		StringBuilder result = new StringBuilder(input.length());
+		int length = input.length();
+		int emitted = 0;
+		int position = 0;
+		Node state = root;
+		int matchStart = -1;
+		int matchEnd = -1;
+		String matchReplacement = null;
+
+		while (true) {
+			// once no match can start at or before the best one found so far, that match is final
+			if (matchStart >= 0 && (position == length || position - state.depth > matchStart)) {
+				result.append(input, emitted, matchStart).append(matchReplacement);
+				emitted = matchEnd;
+				position = matchEnd;
+				state = root;
+				matchStart = -1;
+				continue;
+			}
+			if (position == length) {
+				break;
+			}
+
+			state = next(state, input.charAt(position++));
+			for (Node match = state.replacement != null ? state : state.dictionary; match != null; match = match.dictionary) {
+				int start = position - match.depth;
+				if (matchStart < 0 || start < matchStart || start == matchStart && position > matchEnd) {
+					matchStart = start;
+					matchEnd = position;
+					matchReplacement = match.replacement;
+				}
+			}
+		}
+		return result.append(input, emitted, length).toString();
+	}
+}
@@ -0,0 +1,190 @@
+package com.keithbranton.mojo;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Writes a gzipped copy of generated files alongside them, at maximum compression, for servers that can serve precompressed files.
+ * The files are compressed on a pool of worker threads so that large outputs compress in parallel with each other and with the rest
+ * of the build - {@link #finish()} waits for them.
+ * 
+ * A sidecar is never touched unless its content changes. When an output that wasn't written by this build is newer than its sidecar,
+ * the checksum and size in the sidecar's gzip trailer are compared with the output before it is compressed again.
+ * 
+ * @author Keith Branton
+ */
+public class Precompressor {
+	/**
+	 * What happened to one file
+	 */
+	public static class Result {
+		private final File file;
+		private final long size;
+		private final long compressedSize;
+		private final long nanos;
+		private final boolean written;
+
+		private Result(final File file, final long size, final long compressedSize, final long nanos, final boolean written) {
+			this.file = file;
+			this.size = size;
+			this.compressedSize = compressedSize;
+			this.nanos = nanos;
+			this.written = written;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public File getSidecar() {
+			return sidecar(file);
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		public boolean isWritten() {
+			return written;
+		}
+
+		@Override
+		public String toString() {
+			return size + " to " + compressedSize + " bytes ("
+					+ String.format(Locale.ROOT, "%.1f%%", size == 0 ? 100.0 : compressedSize * 100.0 / size) + ") in "
+					+ nanos / 1000000 + "ms";
+		}
+	}
+
+	private final ExecutorService executor;
+	private final OutputWriter outputWriter = new OutputWriter();
+	private final List<Future<Result>> pending = new ArrayList<>();
+
+	public Precompressor(final int threads) {
+		executor = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * @return the file the gzipped copy of output is written to
+	 */
+	public static File sidecar(final File output) {
+		return new File(output.getPath() + ".gz");
+	}
+
+	/**
+	 * Start compressing the output, unless it wasn't written by this build and already has a sidecar that is newer
+	 * 
+	 * @param written true if the output was written by this build
+	 * @return true if the output will be compressed
+	 */
+	public synchronized boolean submit(final File output, final boolean written) {
+		File sidecar = sidecar(output);
+		if (!written && sidecar.lastModified() >= output.lastModified()) {
+			return false;
+		}
+		pending.add(executor.submit(new Callable<Result>() {
+			@Override
+			public Result call() throws IOException {
+				return compress(output, written);
+			}
+		}));
+		return true;
+	}
+
+	/**
+	 * Wait for everything submitted so far to be compressed
+	 * 
+	 * @return what happened to each file, in the order they were submitted
+	 */
+	public List<Result> finish() throws IOException, InterruptedException {
+		List<Future<Result>> futures;
+		synchronized (this) {
+			futures = new ArrayList<>(pending);
+			pending.clear();
+		}
+		List<Result> results = new ArrayList<>();
+		for (Future<Result> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Stop the workers - anything still being compressed is abandoned
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private Result compress(final File output, final boolean outputWritten) throws IOException {
+		long start = System.nanoTime();
+		File sidecar = sidecar(output);
+		if (!outputWritten && isCurrent(output, sidecar)) {
+			return new Result(output, output.length(), sidecar.length(), System.nanoTime() - start, false);
+		}
+		boolean written = outputWriter.write(sidecar, new OutputWriter.Generator() {
+			@Override
+			public long writeTo(final File file) throws IOException {
+				// the gzip header has no timestamp, so the same output always gives exactly the same sidecar
+				try (OutputStream out = new BestCompressionOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+					Files.copy(output, out);
+				}
+				return file.length();
+			}
+		});
+		return new Result(output, output.length(), sidecar.length(), System.nanoTime() - start, written);
+	}
+
+	/**
+	 * @return true if the gzip trailer of the sidecar - the CRC-32 and the size, modulo 2^32, of what was compressed - matches the output
+	 */
+	private static boolean isCurrent(final File output, final File sidecar) throws IOException {
+		// a 10 byte header and an 8 byte trailer
+		long length = sidecar.length();
+		if (length < 18) {
+			return false;
+		}
+		byte[] trailer = new byte[8];
+		try (RandomAccessFile in = new RandomAccessFile(sidecar, "r")) {
+			in.seek(length - trailer.length);
+			in.readFully(trailer);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(trailer).order(ByteOrder.LITTLE_ENDIAN);
+		int crc = buffer.getInt();
+		int size = buffer.getInt();
+		return size == (int) output.length() && crc == Files.hash(output, Hashing.crc32()).asInt();
+	}
+
+	private static class BestCompressionOutputStream extends GZIPOutputStream {
+		private BestCompressionOutputStream(final OutputStream out) throws IOException {
+			super(out, 65536);
+			def.setLevel(Deflater.BEST_COMPRESSION);
+		}
+	}
+}
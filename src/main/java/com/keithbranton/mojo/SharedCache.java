@@ -0,0 +1,64 @@
+package com.keithbranton.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Source indexes and file contents, with their parsed defines, that are shared by every execution of the goals in the same JVM - so for
+ * a whole maven session, including the projects of a parallel build, and from one build to the next in a build daemon that keeps the
+ * plugin loaded. Everything is checked against the size and modification time of the files before it is used.
+ * 
+ * @author Keith Branton
+ */
+public final class SharedCache {
+	private static final ConcurrentMap<File, SourceIndex> INDEXES = new ConcurrentHashMap<>();
+	private static FileContentCache.Store store;
+
+	private SharedCache() {
+	}
+
+	/**
+	 * @return the shared index of the tree under root, walking it again only if something in it has changed
+	 */
+	public static SourceIndex walk(final File root) throws IOException {
+		File key = root.getAbsoluteFile();
+		SourceIndex index = INDEXES.get(key);
+		if (index != null && index.isCurrent()) {
+			return index;
+		}
+		index = SourceIndex.walk(key);
+		INDEXES.put(key, index);
+		return index;
+	}
+
+	/**
+	 * Bring the shared index of the tree under root up to date with the files an incremental build says have changed - the tree is only
+	 * walked if there isn't one
+	 * 
+	 * @return the updated index, which replaces the previous one
+	 */
+	public static SourceIndex update(final File root, final Collection<File> changed, final Collection<File> deleted)
+			throws IOException {
+		File key = root.getAbsoluteFile();
+		SourceIndex index = INDEXES.get(key);
+		index = index == null ? SourceIndex.walk(key) : index.update(changed, deleted);
+		INDEXES.put(key, index);
+		return index;
+	}
+
+	/**
+	 * @param maxBytes the memory the caller would like the shared contents to be able to use - the largest asked for is used
+	 * @return a cache of its own, for counting hits and misses, that holds its contents in the shared store
+	 */
+	public static synchronized FileContentCache getContentCache(final long maxBytes) {
+		if (store == null) {
+			store = new FileContentCache.Store(maxBytes);
+		} else {
+			store.ensureCapacity(maxBytes);
+		}
+		return new FileContentCache(store);
+	}
+}
@@ -0,0 +1,287 @@
+package com.keithbranton.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.AbstractScanner;
+
+/**
+ * An in-memory index of every file under a source folder, built from a single walk of the tree. The size and modification time of each
+ * file are captured by the same walk. Glob queries are answered with the same semantics as a plexus DirectoryScanner.
+ * 
+ * @author Keith Branton
+ */
+public class SourceIndex {
+	/**
+	 * A file found by the walk
+	 */
+	public static class Entry {
+		private final File file;
+		private final long size;
+		private final long lastModified;
+
+		private Entry(final File file, final long size, final long lastModified) {
+			this.file = file;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+
+	private static final Glob[] DEFAULT_EXCLUDES = Glob.compile(AbstractScanner.DEFAULTEXCLUDES);
+
+	private final File root;
+	private final String rootPath;
+	// keyed by path relative to the root, always using / as the separator
+	private final NavigableMap<String, Entry> entries = new TreeMap<>();
+	// the modification time of every folder, which changes when a file is added, removed or renamed in it
+	private final Map<File, Long> directories = new HashMap<>();
+
+	private SourceIndex(final File root) {
+		this.root = root.getAbsoluteFile();
+		this.rootPath = this.root.getPath();
+	}
+
+	/**
+	 * Walk the tree under root. A root that doesn't exist results in an empty index
+	 */
+	public static SourceIndex walk(final File root) throws IOException {
+		final SourceIndex index = new SourceIndex(root);
+		if (!index.root.isDirectory()) {
+			return index;
+		}
+		Files.walkFileTree(index.root.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+				new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+						index.directories.put(dir.toFile(), attrs.lastModifiedTime().toMillis());
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+						if (attrs.isRegularFile()) {
+							File file = path.toFile();
+							index.entries.put(index.relativize(file), new Entry(file, attrs.size(), attrs.lastModifiedTime().toMillis()));
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(final Path path, final IOException e) {
+						// unreadable files and broken links are skipped, as the DirectoryScanner does
+						return FileVisitResult.CONTINUE;
+					}
+				});
+		return index;
+	}
+
+	/**
+	 * @return true if no file or folder in the tree has been added, removed or modified since the walk - which takes a check of every
+	 *         one of them, but no listing of the folders
+	 */
+	public boolean isCurrent() {
+		if (directories.isEmpty()) {
+			return !root.isDirectory();
+		}
+		for (Map.Entry<File, Long> directory : directories.entrySet()) {
+			if (directory.getKey().lastModified() != directory.getValue()) {
+				return false;
+			}
+		}
+		for (Entry entry : entries.values()) {
+			if (entry.file.length() != entry.size || entry.file.lastModified() != entry.lastModified) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return a copy of the index with the files that have been added or changed, and the files and folders that have been deleted,
+	 *         brought up to date - without walking the tree again
+	 */
+	public SourceIndex update(final Collection<File> changed, final Collection<File> deleted) {
+		SourceIndex result = new SourceIndex(root);
+		result.entries.putAll(entries);
+		result.directories.putAll(directories);
+		for (File file : deleted) {
+			String path = relativize(file);
+			if (path != null) {
+				result.entries.remove(path);
+				// a folder takes everything in it with it
+				result.entries.subMap(path + "/", true, path + "/" + Character.MAX_VALUE, false).clear();
+				Iterator<File> directories = result.directories.keySet().iterator();
+				while (directories.hasNext()) {
+					String directory = relativize(directories.next());
+					if (directory != null && (directory.equals(path) || directory.startsWith(path + "/"))) {
+						directories.remove();
+					}
+				}
+				result.touch(file);
+			}
+		}
+		for (File file : changed) {
+			String path = relativize(file);
+			if (path != null && file.isFile()) {
+				result.entries.put(path, new Entry(file.getAbsoluteFile(), file.length(), file.lastModified()));
+				result.touch(file);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Record the modification times of the folders above a file that has been added, changed or deleted
+	 */
+	private void touch(final File file) {
+		for (File directory = file.getAbsoluteFile().getParentFile(); directory != null
+				&& (directory.equals(root) || relativize(directory) != null); directory = directory.getParentFile()) {
+			if (directory.isDirectory()) {
+				directories.put(directory, directory.lastModified());
+			} else {
+				directories.remove(directory);
+			}
+		}
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the path of the file relative to the root using / as the separator, or null if the file isn't under the root
+	 */
+	public String relativize(final File file) {
+		String path = file.getAbsolutePath();
+		if (!path.startsWith(rootPath + File.separator)) {
+			return null;
+		}
+		return path.substring(rootPath.length() + 1).replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * @return the entry for the file, or null if the walk didn't find it
+	 */
+	public Entry get(final File file) {
+		String path = relativize(file);
+		return path == null ? null : entries.get(path);
+	}
+
+	public Collection<Entry> getEntries() {
+		return entries.values();
+	}
+
+	/**
+	 * Find the files under baseDir that match the patterns, which are relative to baseDir - like a DirectoryScanner would
+	 * 
+	 * @param baseDir a folder within the indexed tree
+	 * @param includes patterns of the files to find, null for everything
+	 * @param excludes patterns of the files to ignore, may be null
+	 * @param defaultExcludes true to also ignore the usual scm and editor files
+	 * @return the matching files, in path order
+	 */
+	public List<File> find(final File baseDir, final String[] includes, final String[] excludes, final boolean defaultExcludes) {
+		String prefix = prefix(baseDir);
+		Glob[] included = compileIncludes(includes);
+		Glob[] excluded = Glob.compile(excludes == null ? new String[0] : excludes);
+
+		List<File> results = new ArrayList<>();
+		for (Map.Entry<String, Entry> entry : entries.subMap(prefix, true, prefix + Character.MAX_VALUE, false).entrySet()) {
+			if (matches(entry.getKey().substring(prefix.length()), included, excluded, defaultExcludes)) {
+				results.add(entry.getValue().getFile());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Pick out the files under baseDir that match the patterns, whether or not they're in the index - so a file that has been deleted
+	 * can be recognized by its name
+	 * 
+	 * @param baseDir a folder within the indexed tree
+	 * @param files the files to check
+	 * @param includes patterns of the files to pick out, null for everything
+	 * @param excludes patterns of the files to ignore, may be null
+	 * @param defaultExcludes true to also ignore the usual scm and editor files
+	 * @return the matching files, in the order they were given
+	 */
+	public List<File> filter(final File baseDir, final Collection<File> files, final String[] includes, final String[] excludes,
+			final boolean defaultExcludes) {
+		String prefix = prefix(baseDir);
+		Glob[] included = compileIncludes(includes);
+		Glob[] excluded = Glob.compile(excludes == null ? new String[0] : excludes);
+
+		List<File> results = new ArrayList<>();
+		for (File file : files) {
+			String path = relativize(file);
+			if (path != null && path.startsWith(prefix)
+					&& matches(path.substring(prefix.length()), included, excluded, defaultExcludes)) {
+				results.add(file);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @return the path of baseDir relative to the root, with a trailing / unless it is the root
+	 */
+	private String prefix(final File baseDir) {
+		if (baseDir.getAbsoluteFile().equals(root)) {
+			return "";
+		}
+		String prefix = relativize(baseDir);
+		if (prefix == null) {
+			throw new IllegalArgumentException(baseDir.getAbsolutePath() + " is not within " + rootPath);
+		}
+		return prefix + "/";
+	}
+
+	private static Glob[] compileIncludes(final String[] includes) {
+		return Glob.compile(includes == null || includes.length == 0 ? new String[] { "**" } : includes);
+	}
+
+	private static boolean matches(final String name, final Glob[] included, final Glob[] excluded, final boolean defaultExcludes) {
+		return Glob.matchesAny(included, name) && !Glob.matchesAny(excluded, name)
+				&& !(defaultExcludes && Glob.matchesAny(DEFAULT_EXCLUDES, name));
+	}
+
+	public int getDirectoryCount() {
+		return directories.size();
+	}
+
+	public int getFileCount() {
+		return entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return directories.size() + " directories and " + entries.size() + " files under " + rootPath;
+	}
+}
@@ -0,0 +1,130 @@
+package com.keithbranton.mojo;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches every folder under a root for files being created, changed and deleted. Folders created while watching are watched too.
+ * 
+ * Changes are reported in batches - a batch ends once there have been no more events for the debounce period - so a burst of changes,
+ * like a git checkout, results in a single batch. When events are lost, or a watched folder is deleted or moved, the batch is reported
+ * as everything having changed.
+ * 
+ * @author Keith Branton
+ */
+public class SourceWatcher implements Closeable {
+	private final File root;
+	private final WatchService watchService;
+	private final Map<WatchKey, Path> keys = new HashMap<>();
+	private final Set<Path> directories = new HashSet<>();
+
+	public SourceWatcher(final File root) throws IOException {
+		this.root = root.getAbsoluteFile();
+		this.watchService = this.root.toPath().getFileSystem().newWatchService();
+		register(this.root.toPath(), null);
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the number of folders being watched
+	 */
+	public int getDirectoryCount() {
+		return keys.size();
+	}
+
+	/**
+	 * Wait for the next batch of changes
+	 * 
+	 * @param debounce how long, in milliseconds, there must be no events before the batch is complete
+	 * @return the files that were created, changed or deleted, or null if events were lost and everything should be considered changed
+	 */
+	public Set<File> await(final long debounce) throws IOException, InterruptedException {
+		Set<File> changed = new TreeSet<>();
+		boolean overflow = false;
+		WatchKey key = watchService.take();
+		while (key != null) {
+			Path dir = keys.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == OVERFLOW || dir == null) {
+					overflow = true;
+					continue;
+				}
+				Path path = dir.resolve((Path) event.context());
+				if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+					// anything created in the folder before it was registered would otherwise be missed
+					register(path, changed);
+				} else if (event.kind() == ENTRY_DELETE && directories.remove(path)) {
+					// a folder that was moved away doesn't report its files, so treat it as everything having changed
+					overflow = true;
+				} else {
+					changed.add(path.toFile());
+				}
+			}
+			if (!key.reset()) {
+				keys.remove(key);
+			}
+			key = watchService.poll(debounce, TimeUnit.MILLISECONDS);
+		}
+		return overflow ? null : changed;
+	}
+
+	/**
+	 * Watch the folder and all the folders under it, adding any files found to changed if it's supplied
+	 */
+	private void register(final Path start, final Set<File> changed) throws IOException {
+		if (!Files.isDirectory(start)) {
+			return;
+		}
+		Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+				keys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+				directories.add(dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+				if (changed != null && attrs.isRegularFile()) {
+					changed.add(path.toFile());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(final Path path, final IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+}
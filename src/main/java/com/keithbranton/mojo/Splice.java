@@ -0,0 +1,315 @@
+package com.keithbranton.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.keithbranton.mojo.FileContentCache.Content;
+
+/**
+ * A description of an output file as a sequence of segments - either literal text or a range of a source file - that is written
+ * without ever assembling the whole output in memory. Ranges of source files are copied with FileChannel.transferTo whenever the cached
+ * text can be mapped back onto the bytes of the file, otherwise the cached text is encoded.
+ * 
+ * @author Keith Branton
+ */
+public class Splice implements OutputWriter.Generator {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Text that is generated while the output is being written rather than held in memory
+	 */
+	public interface Producer {
+		void writeTo(Writer out) throws IOException;
+	}
+
+	private static class Segment {
+		private final CharSequence text;
+		private final Content content;
+		private final int start;
+		private final int end;
+		private final Producer producer;
+
+		private Segment(final CharSequence text, final Content content, final int start, final int end, final Producer producer) {
+			this.text = text;
+			this.content = content;
+			this.start = start;
+			this.end = end;
+			this.producer = producer;
+		}
+
+		private CharSequence getText() throws IOException {
+			if (producer != null) {
+				StringWriter result = new StringWriter();
+				producer.writeTo(result);
+				return result.toString();
+			}
+			return content == null ? text : CharBuffer.wrap(content.getText(), start, end);
+		}
+	}
+
+	private final List<Segment> segments = new ArrayList<>();
+	private boolean compact;
+	private long compacted;
+
+	/**
+	 * Append some literal text
+	 */
+	public Splice text(final CharSequence text) {
+		if (text.length() > 0) {
+			segments.add(new Segment(text, null, 0, 0, null));
+		}
+		return this;
+	}
+
+	/**
+	 * Append text that the producer writes when the output is written
+	 */
+	public Splice stream(final Producer producer) {
+		segments.add(new Segment(null, null, 0, 0, producer));
+		return this;
+	}
+
+	/**
+	 * Append the part of the content between the character offsets start (inclusive) and end (exclusive)
+	 */
+	public Splice range(final Content content, final int start, final int end) {
+		if (start < end) {
+			segments.add(new Segment(null, content, start, end, null));
+		}
+		return this;
+	}
+
+	/**
+	 * Strip the comments and unnecessary whitespace from the output as it is written, with a {@link Compactor}. Every segment then has to
+	 * be decoded and encoded again, rather than copied straight from its file
+	 */
+	public Splice compact(final boolean compact) {
+		this.compact = compact;
+		return this;
+	}
+
+	/**
+	 * @return the number of bytes compaction removed the last time the splice was written
+	 */
+	public long getCompacted() {
+		return compacted;
+	}
+
+	/**
+	 * Write all the segments to the target file, replacing anything already there
+	 * 
+	 * @return the number of bytes written
+	 */
+	@Override
+	public long writeTo(final File target) throws IOException {
+		Map<File, FileChannel> sources = new HashMap<>();
+		try (RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+			FileChannel channel = out.getChannel();
+			channel.truncate(0);
+			CharsetEncoder encoder = Charsets.UTF_8.newEncoder();
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			if (compact) {
+				return writeCompacted(new EncodingWriter(encoder, buffer, channel)) + drain(buffer, channel);
+			}
+			long written = 0;
+			for (Segment segment : segments) {
+				if (segment.producer != null) {
+					EncodingWriter writer = new EncodingWriter(encoder, buffer, channel);
+					segment.producer.writeTo(writer);
+					writer.close();
+					written += writer.written;
+					continue;
+				}
+				long offset = segment.content == null ? -1 : segment.content.getByteOffset(segment.start);
+				if (offset < 0) {
+					written += encode(segment.getText(), encoder, buffer, channel);
+					continue;
+				}
+
+				written += drain(buffer, channel);
+				File file = segment.content.getFile();
+				FileChannel source = sources.get(file);
+				if (source == null) {
+					source = new RandomAccessFile(file, "r").getChannel();
+					sources.put(file, source);
+				}
+				long end = offset + segment.content.getByteLength(segment.start, segment.end);
+				for (long position = offset; position < end;) {
+					long count = source.transferTo(position, end - position, channel);
+					if (count <= 0) {
+						throw new IOException("Unable to copy from " + file.getAbsolutePath() + " - has it been truncated?");
+					}
+					position += count;
+				}
+				written += end - offset;
+			}
+			return written + drain(buffer, channel);
+		} finally {
+			for (FileChannel source : sources.values()) {
+				source.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes encoded into the buffer or drained from it
+	 */
+	private long writeCompacted(final EncodingWriter writer) throws IOException {
+		Compactor compactor = new Compactor(writer);
+		for (Segment segment : segments) {
+			if (segment.producer != null) {
+				segment.producer.writeTo(compactor);
+			} else if (segment.content != null) {
+				compactor.write(segment.content.getText(), segment.start, segment.end - segment.start);
+			} else {
+				compactor.append(segment.text);
+			}
+		}
+		compactor.close();
+		compacted = compactor.getBytesRemoved();
+		return writer.written;
+	}
+
+	private static long encode(final CharSequence text, final CharsetEncoder encoder, final ByteBuffer buffer, final FileChannel channel)
+			throws IOException {
+		encoder.reset();
+		return encode(CharBuffer.wrap(text), true, encoder, buffer, channel);
+	}
+
+	/**
+	 * Encode as much of the chars as possible - when endOfInput is false an incomplete surrogate pair is left in chars
+	 */
+	private static long encode(final CharBuffer chars, final boolean endOfInput, final CharsetEncoder encoder, final ByteBuffer buffer,
+			final FileChannel channel) throws IOException {
+		long written = 0;
+		CoderResult result;
+		do {
+			result = encoder.encode(chars, buffer, endOfInput);
+			if (result.isError()) {
+				result.throwException();
+			}
+			if (result.isOverflow()) {
+				written += drain(buffer, channel);
+			}
+		} while (!result.isUnderflow());
+		if (endOfInput) {
+			while (encoder.flush(buffer).isOverflow()) {
+				written += drain(buffer, channel);
+			}
+		}
+		return written;
+	}
+
+	private static long drain(final ByteBuffer buffer, final FileChannel channel) throws IOException {
+		buffer.flip();
+		long result = buffer.remaining();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+		return result;
+	}
+
+	/**
+	 * A writer that encodes into the shared buffer, draining it to the channel whenever it fills
+	 */
+	private static class EncodingWriter extends Writer {
+		private final CharsetEncoder encoder;
+		private final ByteBuffer buffer;
+		private final FileChannel channel;
+		private final CharBuffer chars = CharBuffer.allocate(8192);
+		private long written;
+		private boolean closed;
+
+		private EncodingWriter(final CharsetEncoder encoder, final ByteBuffer buffer, final FileChannel channel) {
+			this.encoder = encoder;
+			this.buffer = buffer;
+			this.channel = channel;
+			encoder.reset();
+		}
+
+		@Override
+		public void write(final char[] cbuf, final int off, final int len) throws IOException {
+			for (int i = off, end = off + len; i < end;) {
+				int count = Math.min(room(), end - i);
+				chars.put(cbuf, i, count);
+				i += count;
+			}
+		}
+
+		@Override
+		public void write(final String str, final int off, final int len) throws IOException {
+			for (int i = off, end = off + len; i < end;) {
+				int count = Math.min(room(), end - i);
+				chars.put(str, i, i + count);
+				i += count;
+			}
+		}
+
+		@Override
+		public void write(final int c) throws IOException {
+			room();
+			chars.put((char) c);
+		}
+
+		/**
+		 * @return the space left for chars, encoding what's already there if it's full
+		 */
+		private int room() throws IOException {
+			if (closed) {
+				throw new IOException("Writer closed");
+			}
+			if (!chars.hasRemaining()) {
+				chars.flip();
+				written += encode(chars, false, encoder, buffer, channel);
+				chars.compact();
+			}
+			return chars.remaining();
+		}
+
+		/**
+		 * Nothing to do - everything encoded is flushed to the channel when the splice is finished with it
+		 */
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				chars.flip();
+				written += encode(chars, true, encoder, buffer, channel);
+			}
+		}
+	}
+
+	/**
+	 * @return the whole output as a string - only intended for diagnostics
+	 */
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		try {
+			for (Segment segment : segments) {
+				result.append(segment.getText());
+			}
+		} catch (IOException ex) {
+			result.append("...").append(ex);
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,203 @@
+package com.keithbranton.mojo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Turns a template into a <code>$templateCache.put(key, "line\n" + ...);</code> statement, reading the template through a reusable
+ * buffer and writing the escaped JavaScript straight to the destination in a single pass.
+ * 
+ * Line breaks are handled like BufferedReader.readLine - \n, \r and \r\n all end a line and a break at the very end of the template
+ * doesn't start another line - so the output is the same as it always has been. Backslashes and double quotes are escaped, and so are
+ * U+2028 and U+2029 (which JavaScript treats as line breaks) and <code>&lt;/script</code> (which would end an inline script block).
+ * 
+ * Templates can also be written as the entries of a table - an object literal that maps each key to its template as a single JSON
+ * string, with the line breaks escaped - which a loop after the table puts into the cache. That is smaller than a concatenation for
+ * every line, and much quicker for older browsers to parse.
+ * 
+ * An instance holds a buffer, so it must not be used by more than one thread at a time.
+ * 
+ * @author Keith Branton
+ */
+public class TemplateEscaper {
+	private static final String SCRIPT = "</script";
+
+	private final Charset charset;
+	private final char[] buffer = new char[8192];
+	private final char[] script = new char[SCRIPT.length()];
+
+	public TemplateEscaper(final Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * Write the statement that puts the template into the cache
+	 * 
+	 * @param template the template file
+	 * @param quotedKey the cache key, already in quotes
+	 * @param out where to write the statement - it starts with a tab and doesn't end with a line break
+	 * @param eol the line separator to use between the lines of the statement
+	 */
+	public void writePut(final File template, final String quotedKey, final Writer out, final String eol) throws IOException {
+		try (Reader in = new InputStreamReader(new FileInputStream(template), charset)) {
+			writePut(in, quotedKey, out, eol);
+		}
+	}
+
+	public void writePut(final Reader in, final String quotedKey, final Writer out, final String eol) throws IOException {
+		if (write(in, out, "\t$templateCache.put(" + quotedKey + "," + eol + "\t\"", "\\n\" +" + eol + "\t\"", false)) {
+			out.write("\");");
+		} else {
+			out.write("\t$templateCache.put(");
+			out.write(quotedKey);
+			out.write(", \"\");");
+		}
+	}
+
+	/**
+	 * Write the entry for the template in a table of templates - the key and the whole template as a single JSON string
+	 * 
+	 * @param template the template file
+	 * @param key the cache key
+	 * @param out where to write the entry - it starts with two tabs and doesn't end with a comma or a line break
+	 */
+	public void writeEntry(final File template, final String key, final Writer out) throws IOException {
+		try (Reader in = new InputStreamReader(new FileInputStream(template), charset)) {
+			writeEntry(in, key, out);
+		}
+	}
+
+	public void writeEntry(final Reader in, final String key, final Writer out) throws IOException {
+		String opening = "\t\t" + quote(key) + ": \"";
+		if (!write(in, out, opening, "\\n", true)) {
+			out.write(opening);
+		}
+		out.write("\"");
+	}
+
+	/**
+	 * Write the start of a table of templates, which is followed by the entries, each on a line of its own and separated by commas, and
+	 * then the end of the table
+	 */
+	public static void writeTableStart(final Writer out, final String eol) throws IOException {
+		out.write("\tvar templates = {");
+		out.write(eol);
+	}
+
+	/**
+	 * Write the end of a table of templates, and the loop that puts each of them into the cache
+	 */
+	public static void writeTableEnd(final Writer out, final String eol) throws IOException {
+		out.write("\t};" + eol);
+		out.write("\tfor (var key in templates) {" + eol);
+		out.write("\t\tif (templates.hasOwnProperty(key)) {" + eol);
+		out.write("\t\t\t$templateCache.put(key, templates[key]);" + eol);
+		out.write("\t\t}" + eol);
+		out.write("\t}");
+	}
+
+	/**
+	 * @return the text in double quotes, escaped as a JSON string
+	 */
+	public static String quote(final String text) throws IOException {
+		StringWriter out = new StringWriter(text.length() + 2);
+		out.write('"');
+		for (int i = 0; i < text.length(); i++) {
+			escape(text.charAt(i), out, true);
+		}
+		out.write('"');
+		return out.toString();
+	}
+
+	/**
+	 * Write the escaped template, with lineBreak between its lines
+	 * 
+	 * @param opening what to write before the first character of the template
+	 * @param json true to escape the control characters too, as JSON requires
+	 * @return false if the template was empty, so nothing was written
+	 */
+	private boolean write(final Reader in, final Writer out, final String opening, final String lineBreak, final boolean json)
+			throws IOException {
+		boolean started = false;
+		// a line has ended, but whether it was the last one isn't known yet
+		boolean pendingBreak = false;
+		// the previous character was a \r, so a following \n is part of the same break
+		boolean skipLineFeed = false;
+		// how much of </script has been seen but not yet written
+		int matched = 0;
+
+		int count;
+		while ((count = in.read(buffer)) >= 0) {
+			for (int i = 0; i < count; i++) {
+				char c = buffer[i];
+				if (c == '\n' && skipLineFeed) {
+					skipLineFeed = false;
+					continue;
+				}
+				skipLineFeed = c == '\r';
+
+				if (matched > 0 && (c == '\n' || c == '\r' || Character.toLowerCase(c) != SCRIPT.charAt(matched))) {
+					out.write(script, 0, matched);
+					matched = 0;
+				}
+
+				if (!started) {
+					out.write(opening);
+					started = true;
+				} else if (pendingBreak) {
+					out.write(lineBreak);
+					pendingBreak = false;
+				}
+
+				if (c == '\n' || c == '\r') {
+					pendingBreak = true;
+				} else if (Character.toLowerCase(c) == SCRIPT.charAt(matched)) {
+					script[matched++] = c;
+					if (matched == SCRIPT.length()) {
+						out.write("<\\/");
+						out.write(script, 2, matched - 2);
+						matched = 0;
+					}
+				} else {
+					escape(c, out, json);
+				}
+			}
+		}
+		if (matched > 0) {
+			out.write(script, 0, matched);
+		}
+		return started;
+	}
+
+	private static void escape(final char c, final Writer out, final boolean json) throws IOException {
+		switch (c) {
+		case '\\':
+			out.write("\\\\");
+			break;
+		case '"':
+			out.write("\\\"");
+			break;
+		case '\u2028':
+			out.write("\\u2028");
+			break;
+		case '\u2029':
+			out.write("\\u2029");
+			break;
+		case '\t':
+			out.write(json ? "\\t" : "\t");
+			break;
+		default:
+			if (json && c < ' ') {
+				out.write(String.format("\\u%04x", (int) c));
+			} else {
+				out.write(c);
+			}
+		}
+	}
+}
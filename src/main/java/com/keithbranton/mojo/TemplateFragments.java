@@ -0,0 +1,205 @@
+package com.keithbranton.mojo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * A persistent cache of the generated code for each template, so that only added or changed templates need to be escaped again. Each
+ * fragment is stored in its own file in the cache folder, and an index records the size, modification time and content hash of the
+ * template it was generated from. A template whose size and modification time are unchanged isn't even read.
+ * 
+ * @author Keith Branton
+ */
+public class TemplateFragments {
+	private static final String HEADER = "# angular-maven-plugin template fragments v1 - do not edit";
+	private static final String INDEX = "index";
+
+	/**
+	 * Generates the fragment for a template
+	 */
+	public interface Generator {
+		String generate(File template, String key) throws IOException;
+	}
+
+	private static class Record {
+		private final long size;
+		private final long lastModified;
+		private final String hash;
+		private final String fragment;
+
+		private Record(final long size, final long lastModified, final String hash, final String fragment) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+			this.fragment = fragment;
+		}
+	}
+
+	private final File directory;
+	private final String format;
+	private final Map<String, Record> records = new HashMap<>();
+	private final Map<String, Record> used = new HashMap<>();
+	// fragments already read or generated, by name - so a long running build doesn't have to read them again
+	private final Map<String, String> texts = new HashMap<>();
+	private int generated;
+	private int reused;
+
+	/**
+	 * @param directory where to keep the fragments
+	 * @param format identifies the kind of code being generated - fragments of a different format are never reused
+	 */
+	public TemplateFragments(final File directory, final String format) {
+		this.directory = directory;
+		this.format = format;
+	}
+
+	/**
+	 * Read the index. A missing or unreadable index just means every template will be generated
+	 */
+	public void load() {
+		records.clear();
+		File index = new File(directory, INDEX);
+		if (!index.exists()) {
+			return;
+		}
+		try (BufferedReader reader = Files.newReader(index, Charsets.UTF_8)) {
+			if (!HEADER.equals(reader.readLine()) || !format.equals(reader.readLine())) {
+				return;
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t");
+				if (parts.length != 5) {
+					records.clear();
+					return;
+				}
+				records.put(parts[0], new Record(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3], parts[4]));
+			}
+		} catch (IOException | NumberFormatException e) {
+			records.clear();
+		}
+	}
+
+	/**
+	 * @param template the template file
+	 * @param key the template cache key - part of the generated code
+	 * @param size the size of the template file
+	 * @param lastModified the modification time of the template file
+	 * @return the fragment for the template - from the cache if possible, otherwise from the generator
+	 */
+	public String get(final File template, final String key, final long size, final long lastModified, final Generator generator)
+			throws IOException {
+		String path = template.getAbsolutePath();
+		Record record = records.get(path);
+		String fragmentName = fragmentName(key, record == null ? null : record.hash);
+		if (record != null && record.size == size && record.lastModified == lastModified && record.fragment.equals(fragmentName)) {
+			String fragment = read(record.fragment);
+			if (fragment != null) {
+				reused++;
+				used.put(path, record);
+				return fragment;
+			}
+		}
+
+		// the template has been touched at least, so see if its content has actually changed
+		String hash = BuildCache.hash(template);
+		fragmentName = fragmentName(key, hash);
+		if (record != null && record.hash.equals(hash) && record.fragment.equals(fragmentName)) {
+			String fragment = read(record.fragment);
+			if (fragment != null) {
+				reused++;
+				used.put(path, new Record(size, lastModified, hash, fragmentName));
+				return fragment;
+			}
+		}
+
+		String fragment = generator.generate(template, key);
+		directory.mkdirs();
+		Files.write(fragment, new File(directory, fragmentName), Charsets.UTF_8);
+		texts.put(fragmentName, fragment);
+		generated++;
+		used.put(path, new Record(size, lastModified, hash, fragmentName));
+		return fragment;
+	}
+
+	/**
+	 * Write the index of the templates that were asked for in this build, and delete the fragments of any that weren't. The counts of
+	 * generated and reused fragments start again from zero for the next build
+	 */
+	public void save() throws IOException {
+		directory.mkdirs();
+		File index = new File(directory, INDEX);
+		File temp = new File(directory, INDEX + ".tmp");
+		try (BufferedWriter writer = Files.newWriter(temp, Charsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			writer.write(format);
+			writer.newLine();
+			for (Map.Entry<String, Record> entry : used.entrySet()) {
+				Record record = entry.getValue();
+				writer.write(entry.getKey() + "\t" + record.size + "\t" + record.lastModified + "\t" + record.hash + "\t" + record.fragment);
+				writer.newLine();
+			}
+		}
+		if (!temp.renameTo(index)) {
+			Files.move(temp, index);
+		}
+
+		Set<String> keep = new HashSet<>();
+		for (Record record : used.values()) {
+			keep.add(record.fragment);
+		}
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(".frag") && !keep.contains(file.getName())) {
+					file.delete();
+				}
+			}
+		}
+		texts.keySet().retainAll(keep);
+		records.clear();
+		records.putAll(used);
+		used.clear();
+		generated = 0;
+		reused = 0;
+	}
+
+	private String fragmentName(final String key, final String hash) {
+		return BuildCache.hash(format + "\n" + key + "\n" + hash).substring(0, 20) + ".frag";
+	}
+
+	private String read(final String fragmentName) throws IOException {
+		String fragment = texts.get(fragmentName);
+		if (fragment == null) {
+			File file = new File(directory, fragmentName);
+			if (file.exists()) {
+				fragment = Files.toString(file, Charsets.UTF_8);
+				texts.put(fragmentName, fragment);
+			}
+		}
+		return fragment;
+	}
+
+	public int getGenerated() {
+		return generated;
+	}
+
+	public int getReused() {
+		return reused;
+	}
+
+	@Override
+	public String toString() {
+		return generated + " generated, " + reused + " reused";
+	}
+}
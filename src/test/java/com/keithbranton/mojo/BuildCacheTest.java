@@ -0,0 +1,151 @@
+package com.keithbranton.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Checks the outputs BuildCache finds to be affected by changes to their inputs, through its index of the outputs built from each
+ * input
+ *
+ * @author Keith Branton
+ */
+public class BuildCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File cacheFile;
+	private BuildCache cache;
+	private File helper;
+	private File first;
+	private File second;
+	private File firstOutput;
+	private File secondOutput;
+
+	@Before
+	public void setUp() throws IOException {
+		cacheFile = new File(folder.getRoot(), "cache/join.cache");
+		cache = new BuildCache(cacheFile);
+		helper = write("src/shared/helper.js", "helper");
+		first = write("src/first/firstModule.js", "first");
+		second = write("src/second/secondModule.js", "second");
+		firstOutput = write("target/firstModule.js", "first output");
+		secondOutput = write("target/secondModule.js", "second output");
+		cache.update(firstOutput, "config", inputs(first, helper));
+		cache.update(secondOutput, "config", inputs(second, helper));
+	}
+
+	@Test
+	public void nothingChanged() {
+		assertEquals(Collections.emptySet(), cache.findAffected());
+		assertEquals(Collections.emptySet(), cache.findAffected(Collections.<File> emptyList()));
+		assertTrue(cache.isUnchanged(firstOutput, "config", cache.findAffected()));
+		assertFalse(cache.isUnchanged(firstOutput, "other config", cache.findAffected()));
+	}
+
+	@Test
+	public void sharedInputChanged() throws IOException {
+		assertEquals(set(firstOutput, secondOutput), cache.findAffected(Arrays.asList(helper)));
+		assertEquals(set(firstOutput), cache.findAffected(Arrays.asList(first)));
+		assertEquals(Collections.emptySet(), cache.findAffected(Arrays.asList(new File(folder.getRoot(), "src/shared/unused.js"))));
+
+		modify(helper, "helper changed");
+		assertEquals(set(firstOutput, secondOutput), cache.findAffected());
+		assertFalse(cache.isUnchanged(secondOutput, "config", cache.findAffected()));
+	}
+
+	@Test
+	public void inputDeleted() {
+		assertTrue(first.delete());
+		assertEquals(set(firstOutput), cache.findAffected());
+		assertEquals(set(firstOutput), cache.findAffected(Arrays.asList(first)));
+	}
+
+	@Test
+	public void folderDeleted() {
+		File shared = helper.getParentFile();
+		assertTrue(helper.delete() && shared.delete());
+		assertEquals(set(firstOutput, secondOutput), cache.findAffected(Arrays.asList(shared)));
+		// only the folder itself, not one that starts with the same name
+		assertEquals(Collections.emptySet(), cache.findAffected(Arrays.asList(new File(folder.getRoot(), "src/sha"))));
+	}
+
+	@Test
+	public void inputNoLongerUsed() throws IOException {
+		cache.update(firstOutput, "config", inputs(first));
+		assertEquals(set(secondOutput), cache.findAffected(Arrays.asList(helper)));
+		modify(helper, "helper changed");
+		assertEquals(set(secondOutput), cache.findAffected());
+	}
+
+	@Test
+	public void outputRemoved() {
+		cache.remove(secondOutput);
+		assertEquals(set(firstOutput), cache.findAffected(Arrays.asList(helper)));
+		assertEquals(set(firstOutput), cache.getOutputs());
+	}
+
+	@Test
+	public void saveAndLoad() throws IOException {
+		cache.save();
+		BuildCache loaded = new BuildCache(cacheFile);
+		assertTrue(loaded.load());
+		assertEquals(set(firstOutput, secondOutput), loaded.findAffected(Arrays.asList(helper)));
+		assertEquals(new HashSet<>(Arrays.asList(first.getAbsoluteFile(), helper.getAbsoluteFile())), loaded.getInputs(firstOutput));
+		assertTrue(loaded.isUpToDate(firstOutput, "config", inputs(first, helper)));
+		modify(helper, "helper changed");
+		assertEquals(set(firstOutput, secondOutput), loaded.findAffected());
+		assertFalse(loaded.isUpToDate(firstOutput, "config", inputs(first, helper)));
+	}
+
+	@Test
+	public void unreadableCache() throws IOException {
+		Mojos.write(folder.getRoot(), "cache/join.cache", "not a build cache\n");
+		assertFalse(cache.load());
+		assertEquals(Collections.emptySet(), cache.getOutputs());
+		assertEquals(Collections.emptySet(), cache.findAffected(Arrays.asList(helper)));
+	}
+
+	private Map<File, BuildCache.Input> inputs(final File... files) throws IOException {
+		Map<File, BuildCache.Input> results = new LinkedHashMap<>();
+		for (File file : files) {
+			results.put(file, new BuildCache.Input(BuildCache.hash(file), file.length(), file.lastModified()));
+		}
+		return results;
+	}
+
+	private static Set<File> set(final File... files) {
+		Set<File> results = new HashSet<>();
+		for (File file : files) {
+			results.add(file.getAbsoluteFile());
+		}
+		return results;
+	}
+
+	private File write(final String path, final String contents) throws IOException {
+		return Mojos.write(folder.getRoot(), path, contents);
+	}
+
+	private void modify(final File file, final String contents) throws IOException {
+		long lastModified = file.lastModified();
+		Files.write(contents, file, Charsets.UTF_8);
+		assertTrue(file.setLastModified(lastModified + 10000));
+	}
+}
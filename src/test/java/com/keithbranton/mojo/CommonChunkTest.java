@@ -0,0 +1,160 @@
+package com.keithbranton.mojo;
+
+import static com.keithbranton.mojo.Mojos.read;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks which files join hoists into the common chunk, what the chunk looks like, and how the modules that use it load it
+ *
+ * @author Keith Branton
+ */
+public class CommonChunkTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+	private File target;
+
+	@Before
+	public void setUp() throws IOException {
+		root = folder.getRoot();
+		target = new File(root, "target/js");
+		write("main.js", "require.config({});\n");
+		write("app.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('app', []);\n});\n");
+		// used by three modules
+		write("shared/util.js", "define([ 'lodash', '/js/shared/base.js' ], function(_) {\n\tvar util = _;\n});\n");
+		write("shared/base.js", "define([ 'angular' ], function(angular) {\n\tvar base = 1;\n});\n");
+		// used by two
+		write("shared/rare.js", "define([ 'moment' ], function(moment) {\n\tvar rare = moment;\n});\n");
+		write("first/firstModule.js", "define([ 'angular', '/js/shared/util.js', '/js/shared/rare.js' ], function(angular) {\n"
+				+ "\treturn angular.module('first', []);\n});\n");
+		write("second/secondModule.js", "define([ 'angular', '/js/shared/util.js', '/js/shared/rare.js' ], function(angular) {\n"
+				+ "\treturn angular.module('second', []);\n});\n");
+		write("third/thirdModule.js", "define([ 'angular', '/js/shared/util.js' ], function(angular) {\n"
+				+ "\treturn angular.module('third', []);\n});\n");
+		write("fourth/fourthModule.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('fourth', []);\n});\n");
+	}
+
+	@Test
+	public void filesUsedByMoreThanThresholdModules() throws Exception {
+		join(2).execute();
+		String chunk = read(new File(target, "common.js"));
+		assertTrue(chunk.contains("var util"));
+		assertTrue(chunk.contains("var base"));
+		assertFalse(chunk.contains("var rare"));
+		for (String module : Arrays.asList("firstModule.js", "secondModule.js", "thirdModule.js")) {
+			String contents = read(new File(target, module));
+			assertFalse(module, contents.contains("var util"));
+			assertFalse(module, contents.contains("var base"));
+		}
+		assertTrue(read(new File(target, "firstModule.js")).contains("var rare"));
+		assertTrue(read(new File(target, "secondModule.js")).contains("var rare"));
+
+		join(1).execute();
+		assertTrue(read(new File(target, "common.js")).contains("var rare"));
+		assertFalse(read(new File(target, "firstModule.js")).contains("var rare"));
+	}
+
+	@Test
+	public void nothingUsedByEnoughModules() throws Exception {
+		join(2).execute();
+		join(3).execute();
+		assertFalse(new File(target, "common.js").exists());
+		assertTrue(read(new File(target, "thirdModule.js")).contains("var util"));
+		assertFalse(read(new File(target, "thirdModule.js")).contains("\"common\""));
+	}
+
+	@Test
+	public void chunkHeader() throws Exception {
+		join(2).execute();
+		String chunk = read(new File(target, "common.js"));
+		assertTrue(chunk, chunk.startsWith("define([ \"angular\", \"lodash\" ], function(angular, _) {\n"));
+		// util depends on base, so base goes first
+		assertTrue(chunk.indexOf("var base") < chunk.indexOf("var util"));
+		assertTrue(chunk.trim().endsWith("});"));
+	}
+
+	@Test
+	public void modulesLoadTheChunk() throws Exception {
+		join(2).execute();
+		assertEquals("define([ \"angular\", \"moment\", \"common\" ], function(angular, moment) {", header("firstModule.js"));
+		assertEquals("define([ \"angular\", \"common\" ], function(angular) {", header("thirdModule.js"));
+		assertEquals("define([ \"angular\" ], function(angular) {", header("fourthModule.js"));
+	}
+
+	@Test
+	public void commonChunkBase() throws Exception {
+		join(2).execute();
+		JoinMojo join = join(2);
+		Mojos.set(join, "commonChunkBase", "/js/");
+		join.execute();
+		assertEquals("define([ \"angular\", \"/js/common\" ], function(angular) {", header("thirdModule.js"));
+		assertEquals("define([ \"angular\" ], function(angular) {", header("fourthModule.js"));
+	}
+
+	@Test
+	public void modulesLoadTheHashedChunk() throws Exception {
+		JoinMojo join = join(2);
+		Mojos.set(join, "hashNames", true);
+		join.execute();
+		HashManifest manifest = new HashManifest(new File(root, "target/angular-maven-plugin/join-manifest.json"), target);
+		manifest.load();
+		String hashed = manifest.getPath("common.js");
+		assertNotNull(hashed);
+		String reference = hashed.replaceAll("\\.js$", "");
+		assertTrue(reference.startsWith("common."));
+		assertEquals("define([ \"angular\", \"" + reference + "\" ], function(angular) {", header("thirdModule.js"));
+		assertEquals(header("thirdModule.js"), read(manifest.get(new File(target, "thirdModule.js"))).split("\n")[0]);
+
+		// a new chunk gets a new name, and the modules that load it follow
+		write("shared/base.js", "define([ 'angular' ], function(angular) {\n\tvar base = 2;\n});\n");
+		join = join(2);
+		Mojos.set(join, "hashNames", true);
+		join.execute();
+		manifest.load();
+		String changed = manifest.getPath("common.js").replaceAll("\\.js$", "");
+		assertFalse(reference.equals(changed));
+		assertEquals("define([ \"angular\", \"" + changed + "\" ], function(angular) {", header("thirdModule.js"));
+	}
+
+	@Test
+	public void bytesSaved() throws Exception {
+		JoinMojo join = join(2);
+		join.execute();
+		// util and base are each written once instead of three times
+		long saved = 2 * (source("shared/util.js").length() + source("shared/base.js").length());
+		String chunk = new File(target, "common.js").getAbsolutePath();
+		assertEquals(Arrays.asList("Join:: 2 files used by more than 2 modules are only in " + chunk + ", saving " + saved + " bytes"),
+				Mojos.log(join).find("info", "saving"));
+	}
+
+	private JoinMojo join(final int commonThreshold) throws ReflectiveOperationException {
+		JoinMojo join = Mojos.join(root);
+		Mojos.set(join, "commonThreshold", commonThreshold);
+		return join;
+	}
+
+	private String header(final String output) throws IOException {
+		return read(new File(target, output)).split("\n")[0];
+	}
+
+	private File source(final String path) {
+		return new File(root, "src/main/js/" + path);
+	}
+
+	private void write(final String path, final String contents) throws IOException {
+		Mojos.write(root, "src/main/js/" + path, contents);
+	}
+}
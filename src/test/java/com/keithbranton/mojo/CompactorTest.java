@@ -0,0 +1,94 @@
+package com.keithbranton.mojo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Checks that Compactor removes comments and whitespace, and leaves strings, regular expressions and template literals alone
+ *
+ * @author Keith Branton
+ */
+public class CompactorTest {
+	@Test
+	public void commentsAreRemoved() throws IOException {
+		assertEquals("var a=1;var b=2;var c=3;", compact("var a = 1; // comment\nvar b = 2; /* block */ var c = 3;"));
+		assertEquals("x=y", compact("x = y // end"));
+	}
+
+	@Test
+	public void keptComments() throws IOException {
+		assertEquals("/*! licence */\nvar a;", compact("/*! licence */\n/* gone */\nvar a;"));
+	}
+
+	@Test
+	public void strings() throws IOException {
+		assertEquals("var s='// not /* a comment */';var t=\"a  b\";", compact("var s = '// not /* a comment */';\nvar t = \"a  b\";"));
+		assertEquals("var s='it\\'s  //';", compact("var s = 'it\\'s  //';"));
+	}
+
+	@Test
+	public void regularExpressions() throws IOException {
+		assertEquals("var r=/[/]\\/ +/g.test(x);var d=a/b/c;", compact("var r = /[/]\\/ +/g.test(x);\nvar d = a / b / c;"));
+		assertEquals("return/a  b/.test(x)", compact("return /a  b/.test(x)"));
+	}
+
+	@Test
+	public void templateLiterals() throws IOException {
+		assertEquals("var t=`a  ${b+`c ${d} e`}  // f`;", compact("var t = `a  ${ b  +  `c ${ d  } e` }  // f`;"));
+		assertEquals("var t=`${{a:1}.a}  x`;", compact("var t = `${ { a : 1 }.a }  x`;"));
+	}
+
+	@Test
+	public void escapedSubstitution() throws IOException {
+		assertEquals("var t=`\\${ not }  ${x}`;", compact("var t = `\\${ not }  ${ x }`;"));
+		assertEquals("var t=`$ {  }`;", compact("var t = `$ {  }`;"));
+	}
+
+	@Test
+	public void whitespace() throws IOException {
+		assertEquals("var x=1;if(x){y();}", compact("var  x  =  1 ;\n\n\n  if ( x ) {\n\ty ( ) ;\n}\n"));
+		assertEquals("a+ +b;a- -b;a++ +b", compact("a + +b; a - -b; a++ + b"));
+	}
+
+	@Test
+	public void significantLineBreaks() throws IOException {
+		assertEquals("return\nx", compact("return\nx"));
+		assertEquals("a=b\n+c", compact("a = b\n+c"));
+	}
+
+	@Test
+	public void oneCharacterAtATime() throws IOException {
+		String source = "var t = `a  ${ b  +  `c ${ d  } e` }  // f`; /* x */ var r = /[/]/g;";
+		StringWriter out = new StringWriter();
+		try (Compactor compactor = new Compactor(out)) {
+			for (int i = 0; i < source.length(); i++) {
+				compactor.write(source.charAt(i));
+			}
+		}
+		assertEquals(compact(source), out.toString());
+	}
+
+	@Test
+	public void bytesRemoved() throws IOException {
+		String source = "var é = 1; // comment é\n";
+		StringWriter out = new StringWriter();
+		Compactor compactor = new Compactor(out);
+		compactor.write(source);
+		compactor.close();
+		assertEquals(source.getBytes(Charsets.UTF_8).length - out.toString().getBytes(Charsets.UTF_8).length, compactor.getBytesRemoved());
+	}
+
+	private static String compact(final String source) throws IOException {
+		StringWriter out = new StringWriter();
+		try (Compactor compactor = new Compactor(out)) {
+			compactor.write(source);
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,155 @@
+package com.keithbranton.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+ * Checks that a define is parsed correctly, and in time proportional to its header, however large or malformed the header is
+ *
+ * @author Keith Branton
+ */
+public class DefineTest {
+	private static final int DEPENDENCIES = 200000;
+
+	@Test
+	public void parsesHeaderAndTrailer() {
+		String contents = "/* leading */ define([ 'a', \"b/c\", // a comment\n d ], function named(x, y) {\n\treturn x;\n});";
+		Define define = Define.parse(contents);
+		assertEquals(Arrays.asList("a", "b/c", "d"), define.getDependencies());
+		assertEquals(Arrays.asList("x", "y"), define.getParameters());
+		assertEquals(contents.indexOf("define"), define.getHeaderStart());
+		assertEquals("\n\treturn x;", contents.substring(define.getBodyStart(), define.getBodyEnd()).replaceAll("\\s+$", ""));
+		assertTrue(define.hasTrailer());
+	}
+
+	@Test
+	public void withoutTrailer() {
+		Define define = Define.parse("define([], function() { return 1; }) // trailing");
+		assertEquals(0, define.getDependencies().size());
+		assertFalse(define.hasTrailer());
+	}
+
+	@Test
+	public void notADefine() {
+		assertNull(Define.parse(""));
+		assertNull(Define.parse("defined([], function() {});"));
+		assertNull(Define.parse("angular.module('a', []);"));
+		assertNull(Define.parse("define(['a'], function(a-b) {});"));
+	}
+
+	@Test(timeout = 10000)
+	public void largeHeader() {
+		StringBuilder contents = new StringBuilder("define([");
+		for (int i = 0; i < DEPENDENCIES; i++) {
+			contents.append(i == 0 ? "" : ", ").append(i % 2 == 0 ? "'dep" : "/* c */ \"dep").append(i).append(i % 2 == 0 ? "'" : "\"");
+		}
+		contents.append("], function() {\n});");
+		Define define = Define.parse(contents);
+		assertEquals(DEPENDENCIES, define.getDependencies().size());
+		assertEquals("dep" + (DEPENDENCIES - 1), define.getDependencies().get(DEPENDENCIES - 1));
+		assertTrue(define.hasTrailer());
+	}
+
+	@Test(timeout = 10000)
+	public void largeBody() {
+		StringBuilder contents = new StringBuilder("define(['a'], function(a) {\n");
+		for (int i = 0; i < DEPENDENCIES; i++) {
+			contents.append("\tvar x").append(i).append(" = '/*';\n");
+		}
+		contents.append("});");
+		Define define = Define.parse(contents);
+		assertEquals(Arrays.asList("a"), define.getDependencies());
+		assertTrue(define.hasTrailer());
+	}
+
+	@Test
+	public void onlyHeaderAndTrailerAreRead() {
+		StringBuilder contents = new StringBuilder("/* a */ define([ 'a', \"b\" ], function(a, b) {\n");
+		for (int i = 0; i < DEPENDENCIES; i++) {
+			contents.append("\tvar x").append(i).append(" = '/*';\n");
+		}
+		contents.append("\n}\n) ;\n");
+		Watched watched = new Watched(contents);
+		Define define = Define.parse(watched);
+		assertEquals(Arrays.asList("a", "b"), define.getDependencies());
+		assertTrue(define.hasTrailer());
+		// nothing between the opening brace and the last character of the body
+		assertEquals(define.getBodyEnd() - 1, watched.read.nextSetBit(define.getBodyStart()));
+		assertTrue(watched.read.nextSetBit(define.getBodyStart()) > contents.length() - 20);
+	}
+
+	@Test(timeout = 10000)
+	public void unterminatedComment() {
+		assertNull(Define.parse("/* never closed define([], function() {});"));
+		assertNull(Define.parse("define([ 'a', /* never closed ], function() {});"));
+		assertNull(Define.parse("define([ 'a' ], /* never closed function() {});"));
+		assertNull(Define.parse(repeat("define(['a', /*", DEPENDENCIES)));
+	}
+
+	@Test(timeout = 10000)
+	public void unterminatedString() {
+		assertNull(Define.parse("define([ 'a, function() {});"));
+		assertNull(Define.parse("define([ \"a\\\", function() {});"));
+		assertNull(Define.parse("define([ 'a\n' ], function() {});"));
+		assertNull(Define.parse("define([" + repeat("'a\\'", DEPENDENCIES)));
+	}
+
+	@Test(timeout = 10000)
+	public void truncated() {
+		String contents = "define([ 'a', 'b' ], function(a, b) {});";
+		for (int i = 0; i < contents.indexOf('{'); i++) {
+			assertNull(contents.substring(0, i), Define.parse(contents.substring(0, i)));
+		}
+		assertNull(Define.parse("define([" + repeat(" ", DEPENDENCIES)));
+		assertNull(Define.parse("define([" + repeat(",", DEPENDENCIES)));
+		assertNull(Define.parse("define([" + repeat("// line\n", DEPENDENCIES)));
+	}
+
+	/**
+	 * Records which characters are read, and fails if the text is copied
+	 */
+	private static class Watched implements CharSequence {
+		private final CharSequence contents;
+		private final BitSet read = new BitSet();
+
+		private Watched(final CharSequence contents) {
+			this.contents = contents;
+		}
+
+		@Override
+		public int length() {
+			return contents.length();
+		}
+
+		@Override
+		public char charAt(final int index) {
+			read.set(index);
+			return contents.charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(final int start, final int end) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String toString() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static String repeat(final String s, final int times) {
+		StringBuilder result = new StringBuilder(s.length() * times);
+		for (int i = 0; i < times; i++) {
+			result.append(s);
+		}
+		return result.toString();
+	}
+}
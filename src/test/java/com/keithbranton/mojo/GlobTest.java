@@ -0,0 +1,133 @@
+package com.keithbranton.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.AbstractScanner;
+import org.codehaus.plexus.util.SelectorUtils;
+import org.junit.Test;
+
+/**
+ * Checks that Glob and GlobMatcher match the same paths as the plexus SelectorUtils.matchPath they replaced, for every pattern against
+ * every path, and the same files as a scanner with both includes and excludes
+ *
+ * @author Keith Branton
+ */
+public class GlobTest {
+	private static final String[] PATTERNS = { "**", "*", "?", "**/*", "**/*.js", "*.js", "?.js", "??.js", "a?c.js", "*Module.js",
+			"**/*Module.js", "/js/**/*.js", "js/**/*.js", "/js/**", "/js/*", "/js/*/", "js/", "/js/", "**/first/**", "**/first/*.html",
+			"first/**/x.js", "**/**/x.js", "**/a*b*c.js", "*a*", "js/first/firstModule.js", "/js/first/firstModule.js", "js\\first\\*.js",
+			"**/.git/**", "**/*~", "" };
+	private static final String[] PATHS = { "", "/", "a.js", "/a.js", "ab.js", "abc.js", "aXc.js", "abbc.js", "x.js", "xa.js", "js",
+			"/js", "js/a.js", "/js/a.js", "/js/first/firstModule.js", "js/first/firstModule.js", "/js/first/view.html",
+			"/js/first/sub/x.js", "first/x.js", "first/a/b/x.js", "/first/x.js", "js//first//x.js", "js\\first\\a.js", "aXbYc.js",
+			"a/b/c.js", "src/.git/config", "a.js~", "firstModule.js", "js/first/", "\\js\\first\\firstModule.js", "first\\x.js" };
+
+	@Test
+	public void sameAsMatchPath() {
+		for (String pattern : PATTERNS) {
+			Glob glob = Glob.compile(pattern);
+			for (String path : PATHS) {
+				assertEquals(pattern + " against " + path, matchPath(pattern, path), glob.matches(path));
+			}
+		}
+	}
+
+	@Test
+	public void sameAsScanner() {
+		for (String include : PATTERNS) {
+			for (String exclude : new String[] { "**/*.html", "**/first/**", "js/", "*.js", "**/.git/**" }) {
+				String[] includes = { include, "**/*Module.js" };
+				String[] excludes = { exclude };
+				Scanner scanner = new Scanner(includes, excludes);
+				Glob[] included = Glob.compile(includes);
+				Glob[] excluded = Glob.compile(excludes);
+				for (String path : PATHS) {
+					assertEquals(include + " but not " + exclude + " against " + path, scanner.matches(path),
+							Glob.matchesAny(included, path) && !Glob.matchesAny(excluded, path));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void matcher() {
+		File base = new File("/project/src/main");
+		for (String pattern : PATTERNS) {
+			GlobMatcher matcher = GlobMatcher.get(base, new String[] { pattern });
+			for (String path : PATHS) {
+				if (path.startsWith("/")) {
+					// files under the base are matched by their path relative to it
+					File file = new File(base, path);
+					assertEquals(pattern + " against " + file, matchPath(pattern, path), matcher.matches(file));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void noPatterns() {
+		assertFalse(Glob.matchesAny(new Glob[0], "a.js"));
+		assertTrue(Glob.matchesAny(Glob.compile(new String[] { "x", "*.js" }), "a.js"));
+	}
+
+	/**
+	 * @return whether the pattern matches the path, using SelectorUtils after setting the pattern up as the scanners do
+	 */
+	private static boolean matchPath(final String pattern, final String path) {
+		String normalized = local(pattern).trim();
+		return SelectorUtils.matchPath(normalized.endsWith(File.separator) ? normalized + "**" : normalized, local(path));
+	}
+
+	/**
+	 * @return the path with the platform's separator for each / - a \ is left alone, so it is only a separator on windows
+	 */
+	private static String local(final String path) {
+		return path.replace('/', File.separatorChar);
+	}
+
+	/**
+	 * How the scanners decide whether a file is included
+	 */
+	private static class Scanner extends AbstractScanner {
+		private Scanner(final String[] includes, final String[] excludes) {
+			setIncludes(locals(includes));
+			setExcludes(locals(excludes));
+		}
+
+		private static String[] locals(final String[] patterns) {
+			String[] results = new String[patterns.length];
+			for (int i = 0; i < patterns.length; i++) {
+				results[i] = local(patterns[i]);
+			}
+			return results;
+		}
+
+		private boolean matches(final String path) {
+			return isIncluded(local(path)) && !isExcluded(local(path));
+		}
+
+		@Override
+		public void scan() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String[] getIncludedFiles() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String[] getIncludedDirectories() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public File getBasedir() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
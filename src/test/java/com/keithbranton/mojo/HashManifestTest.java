@@ -0,0 +1,151 @@
+package com.keithbranton.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Checks the hashed copies HashManifest makes, and that the manifest survives being saved and loaded
+ *
+ * @author Keith Branton
+ */
+public class HashManifestTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File base;
+	private File file;
+	private HashManifest manifest;
+
+	@Before
+	public void setUp() throws IOException {
+		base = folder.newFolder("js");
+		file = new File(folder.getRoot(), "manifest.json");
+		manifest = new HashManifest(file, base);
+	}
+
+	@Test
+	public void hashedName() {
+		assertEquals("firstModule.3f9a1c2b.js", HashManifest.hashedName("firstModule.js", "3f9a1c2b"));
+		assertEquals("sub/app.min.3f9a1c2b.js", HashManifest.hashedName("sub/app.min.js", "3f9a1c2b"));
+		assertEquals("README.3f9a1c2b", HashManifest.hashedName("README", "3f9a1c2b"));
+		assertEquals(".hidden.3f9a1c2b", HashManifest.hashedName(".hidden", "3f9a1c2b"));
+	}
+
+	@Test
+	public void copyIsNamedByContent() throws IOException {
+		File output = write("sub/firstModule.js", "define([], function() {});");
+		assertTrue(manifest.write(output));
+
+		String path = manifest.getPath("sub/firstModule.js");
+		String hash = BuildCache.hash(output).substring(0, 8);
+		assertEquals("sub/firstModule." + hash + ".js", path);
+		File copy = manifest.get(output);
+		assertEquals(new File(base, path), copy);
+		assertEquals(Files.toString(output, Charsets.UTF_8), Files.toString(copy, Charsets.UTF_8));
+	}
+
+	@Test
+	public void sameContentIsNotCopiedAgain() throws IOException {
+		File output = write("app.js", "var a = 1;");
+		manifest.write(output);
+		File copy = manifest.get(output);
+		long lastModified = copy.lastModified();
+
+		assertFalse(manifest.write(output));
+		assertEquals(copy, manifest.get(output));
+		assertEquals(lastModified, copy.lastModified());
+	}
+
+	@Test
+	public void previousCopyIsDeleted() throws IOException {
+		File output = write("app.js", "var a = 1;");
+		manifest.write(output);
+		File previous = manifest.get(output);
+		File sidecar = Precompressor.sidecar(previous);
+		Files.write("gz", sidecar, Charsets.UTF_8);
+
+		write("app.js", "var a = 2;");
+		assertTrue(manifest.write(output));
+		assertNotEquals(previous, manifest.get(output));
+		assertFalse(previous.exists());
+		assertFalse(sidecar.exists());
+		assertTrue(manifest.get(output).isFile());
+	}
+
+	@Test
+	public void remove() throws IOException {
+		File output = write("app.js", "var a = 1;");
+		manifest.write(output);
+		File copy = manifest.get(output);
+
+		manifest.remove(output);
+		assertFalse(copy.exists());
+		assertNull(manifest.get(output));
+		assertNull(manifest.getPath("app.js"));
+	}
+
+	@Test
+	public void missingCopyIsNotReturned() throws IOException {
+		File output = write("app.js", "var a = 1;");
+		manifest.write(output);
+		assertTrue(manifest.get(output).delete());
+		assertNull(manifest.get(output));
+		assertNotNull(manifest.getPath("app.js"));
+	}
+
+	@Test
+	public void saveAndLoad() throws IOException {
+		File first = write("first \"quoted\".js", "var a = 1;");
+		File second = write("sub/second.js", "var b = 2;");
+		manifest.write(first);
+		manifest.write(second);
+		manifest.save();
+
+		HashManifest loaded = new HashManifest(file, base);
+		loaded.load();
+		assertEquals(manifest.getPath("first \"quoted\".js"), loaded.getPath("first \"quoted\".js"));
+		assertEquals(manifest.get(first), loaded.get(first));
+		assertEquals(manifest.get(second), loaded.get(second));
+		assertFalse(loaded.write(first));
+	}
+
+	@Test
+	public void emptyManifest() throws IOException {
+		manifest.save();
+		assertEquals("{}\n", Files.toString(file, Charsets.UTF_8));
+		manifest.load();
+		assertNull(manifest.getPath("app.js"));
+	}
+
+	@Test
+	public void unreadableManifestIsEmpty() throws IOException {
+		manifest.load();
+		assertNull(manifest.getPath("app.js"));
+
+		Files.write("not json at all", file, Charsets.UTF_8);
+		manifest.load();
+		assertNull(manifest.getPath("app.js"));
+	}
+
+	private File write(final String path, final String contents) throws IOException {
+		File output = new File(base, path);
+		output.getParentFile().mkdirs();
+		Files.write(contents, output, Charsets.UTF_8);
+		return output;
+	}
+}
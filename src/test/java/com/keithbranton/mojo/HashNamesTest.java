@@ -0,0 +1,101 @@
+package com.keithbranton.mojo;
+
+import static com.keithbranton.mojo.Mojos.read;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the copies join names by a hash of their content, the manifest that maps each output to its copy, and the paths of the
+ * modules in main that are rewritten to the copies
+ *
+ * @author Keith Branton
+ */
+public class HashNamesTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+	private File target;
+
+	@Before
+	public void setUp() throws IOException {
+		root = folder.getRoot();
+		target = new File(root, "target/js");
+		write("main.js", "require.config({\n\tpaths : {\n\t\tfirst : 'js/first/firstModule',\n"
+				+ "\t\tsecond : 'js/second/secondModule'\n\t}\n});\n");
+		write("app.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('app', []);\n});\n");
+		write("first/firstModule.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('first', []);\n});\n");
+		write("second/secondModule.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('second', []);\n});\n");
+	}
+
+	@Test
+	public void mainLoadsTheModulesFromTheirCopies() throws Exception {
+		join(true).execute();
+		assertEquals("require.config({\n\tpaths : {\n\t\tfirst : 'js/firstModule." + hash("firstModule.js") + "',\n"
+				+ "\t\tsecond : 'js/secondModule." + hash("secondModule.js") + "'\n\t}\n});", read(new File(target, "main.js")));
+	}
+
+	@Test
+	public void mainLoadsTheModulesByTheirPlainNames() throws Exception {
+		join(false).execute();
+		assertEquals("require.config({\n\tpaths : {\n\t\tfirst : 'js/firstModule',\n\t\tsecond : 'js/secondModule'\n\t}\n});",
+				read(new File(target, "main.js")));
+		assertFalse(new File(root, "target/angular-maven-plugin/join-manifest.json").exists());
+	}
+
+	@Test
+	public void manifest() throws Exception {
+		join(true).execute();
+		assertEquals("{\n" //
+				+ "  \"app.js\": \"app." + hash("app.js") + ".js\",\n" //
+				+ "  \"firstModule.js\": \"firstModule." + hash("firstModule.js") + ".js\",\n" //
+				+ "  \"main.js\": \"main." + hash("main.js") + ".js\",\n" //
+				+ "  \"secondModule.js\": \"secondModule." + hash("secondModule.js") + ".js\"\n" //
+				+ "}\n", read(new File(root, "target/angular-maven-plugin/join-manifest.json")));
+		for (String output : new String[] { "app.js", "firstModule.js", "main.js", "secondModule.js" }) {
+			assertEquals(output, read(new File(target, output)), read(new File(target, HashManifest.hashedName(output, hash(output)))));
+		}
+	}
+
+	@Test
+	public void changedModuleGetsANewName() throws Exception {
+		join(true).execute();
+		String first = hash("firstModule.js");
+		String second = hash("secondModule.js");
+		String main = read(new File(target, "main.js"));
+
+		write("first/firstModule.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('first', [ 'app' ]);\n});\n");
+		join(true).execute();
+		assertFalse(first.equals(hash("firstModule.js")));
+		assertEquals(second, hash("secondModule.js"));
+		// the copy of the old content is gone, and main follows the new one
+		assertFalse(new File(target, "firstModule." + first + ".js").exists());
+		assertEquals(main.replace("firstModule." + first, "firstModule." + hash("firstModule.js")), read(new File(target, "main.js")));
+	}
+
+	private JoinMojo join(final boolean hashNames) throws ReflectiveOperationException {
+		JoinMojo join = Mojos.join(root);
+		Mojos.set(join, "hashNames", hashNames);
+		return join;
+	}
+
+	/**
+	 * @return the hash in the name of the copy of an output, worked out from its content
+	 */
+	private String hash(final String output) throws IOException {
+		return BuildCache.hash(new File(target, output)).substring(0, 8);
+	}
+
+	private void write(final String path, final String contents) throws IOException {
+		Mojos.write(root, "src/main/js/" + path, contents);
+	}
+}
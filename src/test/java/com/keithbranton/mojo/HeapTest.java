@@ -0,0 +1,163 @@
+package com.keithbranton.mojo;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+
+/**
+ * Checks that the peak heap used by a cold join stays flat as the number of modules grows, when maxModulesInMemory is 1. Like the
+ * HeapCheck benchmark, the live heap is sampled by forcing a collection every few milliseconds, which makes it slow - so it only runs
+ * when the heapTest property is set, e.g. mvn test -Dtest=HeapTest -DheapTest=true
+ *
+ * The index of the source folder and the build cache hold an entry for every file, so the allowance grows by ALLOWANCE_PER_FILE bytes
+ * for each file over the smaller project - the files are large enough that holding their contents would blow through it.
+ *
+ * @author Keith Branton
+ */
+public class HeapTest {
+	private static final long ALLOWANCE_PER_FILE = 1024;
+	private static final long SAMPLE_MILLIS = 5;
+	private static final int FILE_SIZE = 16384;
+	private static final int PARTS = 3;
+	private static final int TEMPLATES = 2;
+	private static final int SHARED = 20;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setUp() {
+		Assume.assumeTrue(Boolean.getBoolean("heapTest"));
+	}
+
+	@Test
+	public void peakHeapIsFlat() throws Exception {
+		int smaller = 100;
+		int larger = 400;
+		long first = measure(smaller);
+		long second = measure(larger);
+		long allowed = first * 3 / 2 + (getFileCount(larger) - getFileCount(smaller)) * ALLOWANCE_PER_FILE;
+		assertTrue("the peak heap of " + larger + " modules was " + second / 1024 + "KB, more than the " + allowed / 1024
+				+ "KB allowed - " + smaller + " modules peaked at " + first / 1024 + "KB", second <= allowed);
+	}
+
+	/**
+	 * @return the most heap that was used by a cold join of a project with the number of modules, over what was used before it started
+	 */
+	private long measure(final int modules) throws Exception {
+		File root = folder.newFolder("modules" + modules);
+		generate(root, modules);
+		JoinMojo join = Mojos.join(root);
+		Mojos.set(join, "contentCacheSize", 1);
+		Mojos.set(join, "maxModulesInMemory", 1);
+
+		Sampler sampler = new Sampler();
+		sampler.start();
+		try {
+			join.execute();
+		} finally {
+			sampler.finish();
+		}
+		return sampler.peak - sampler.baseline;
+	}
+
+	private static int getFileCount(final int modules) {
+		return 2 + SHARED + modules * (1 + PARTS + TEMPLATES);
+	}
+
+	/**
+	 * Write a project where each module has a chain of PARTS files of its own and uses two of the SHARED files, and every file is about
+	 * FILE_SIZE bytes
+	 */
+	private static void generate(final File root, final int modules) throws IOException {
+		StringBuilder main = new StringBuilder("require.config({\n\tpaths : {\n");
+		for (int i = 0; i < modules; i++) {
+			main.append("\t\tm").append(i).append(" : 'js/m").append(i).append("/m").append(i).append("Module',\n");
+		}
+		write(root, "main.js", main.append("\t}\n});\n").toString());
+		write(root, "app.js", define("app", "", "return angular.module('app', []);"));
+		for (int i = 0; i < SHARED; i++) {
+			write(root, "shared/shared" + i + ".js", define("shared" + i, "", ""));
+		}
+		for (int i = 0; i < modules; i++) {
+			String name = "m" + i;
+			write(root, name + "/" + name + "Module.js", define(name, ", '" + name + "Part1.js', '/js/shared/shared" + i % SHARED
+					+ ".js', '/js/shared/shared" + (i + 1) % SHARED + ".js'", "return angular.module('" + name + "', []);"));
+			for (int part = 1; part <= PARTS; part++) {
+				write(root, name + "/" + name + "Part" + part + ".js", define(name + "Part" + part, part < PARTS ? ", '" + name + "Part"
+						+ (part + 1) + ".js'" : "", ""));
+			}
+			for (int template = 0; template < TEMPLATES; template++) {
+				write(root, name + "/view" + template + ".html", "<div>\n" + Strings.repeat("\t<p>{{ item }}</p>\n", FILE_SIZE / 18)
+						+ "</div>\n");
+			}
+		}
+	}
+
+	private static String define(final String name, final String deps, final String body) {
+		StringBuilder result = new StringBuilder("define([ 'angular'").append(deps).append(" ], function(angular) {\n");
+		for (int n = 0; result.length() < FILE_SIZE; n++) {
+			result.append("\tvar ").append(name).append('_').append(n).append(" = function(a, b) {\n\t\treturn a * b;\n\t};\n");
+		}
+		return result.append('\t').append(body).append("\n});\n").toString();
+	}
+
+	private static void write(final File root, final String path, final String contents) throws IOException {
+		Mojos.write(root, "src/main/js/" + path, contents);
+	}
+
+	private static class Sampler extends Thread {
+		private final long baseline;
+		private volatile boolean finished;
+		private long peak;
+
+		private Sampler() {
+			baseline = sample();
+			peak = baseline;
+			setDaemon(true);
+		}
+
+		/**
+		 * @return what was left in the heap by a full collection - not counting anything allocated since, as the build carries on
+		 */
+		private long sample() {
+			System.gc();
+			long used = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+					used += pool.getCollectionUsage().getUsed();
+				}
+			}
+			return used;
+		}
+
+		@Override
+		public void run() {
+			while (!finished) {
+				peak = Math.max(peak, sample());
+				try {
+					Thread.sleep(SAMPLE_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		private void finish() throws InterruptedException {
+			finished = true;
+			join();
+		}
+	}
+}
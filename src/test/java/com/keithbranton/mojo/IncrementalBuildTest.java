@@ -0,0 +1,261 @@
+package com.keithbranton.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that join rebuilds exactly the modules a change affects - found from the build cache's index of the outputs built from each
+ * file - both when every file is checked and when the build is told what has changed
+ *
+ * @author Keith Branton
+ */
+public class IncrementalBuildTest {
+	private static final Pattern LOADED = Pattern.compile("\"modulesLoaded\": (\\d+)");
+	private static final List<File> NONE = Collections.emptyList();
+	private static final List<String> NONE_BUILT = Collections.emptyList();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+	private File target;
+	private JoinMojo join;
+
+	@Before
+	public void setUp() throws Exception {
+		root = folder.getRoot();
+		target = new File(root, "target/js");
+		write("main.js", "require.config({});\n");
+		write("app.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('app', []);\n});\n");
+		write("shared/helper.js", "define([ 'angular' ], function(angular) {\n\tvar helper = 1;\n});\n");
+		write("shared/other.js", "define([ 'angular' ], function(angular) {\n\tvar other = 1;\n});\n");
+		write("first/firstModule.js", module("first", "/js/shared/helper.js"));
+		write("first/view.html", "<p>first</p>\n");
+		write("second/secondModule.js", module("second", "/js/shared/helper.js"));
+		write("third/thirdModule.js", module("third", "/js/shared/other.js"));
+		assertEquals(Arrays.asList("app.js", "firstModule.js", "main.js", "secondModule.js", "thirdModule.js"), build());
+	}
+
+	@Test
+	public void nothingChanged() throws Exception {
+		assertEquals(NONE_BUILT, build());
+		assertEquals(0, getLoaded());
+		assertEquals(1, Mojos.log(join).find("info", "Nothing to do").size());
+	}
+
+	@Test
+	public void sharedFileEdited() throws Exception {
+		edit("shared/helper.js", "define([ 'angular' ], function(angular) {\n\tvar helper = 2;\n});\n");
+		assertEquals(Arrays.asList("firstModule.js", "secondModule.js"), build());
+		assertEquals(2, getLoaded());
+		assertTrue(read("secondModule.js").contains("helper = 2"));
+	}
+
+	@Test
+	public void sharedFileTouched() throws Exception {
+		File helper = new File(root, "src/main/js/shared/helper.js");
+		assertTrue(helper.setLastModified(helper.lastModified() + 10000));
+		// loaded to compare the content, but not written
+		assertEquals(NONE_BUILT, build());
+		assertEquals(2, getLoaded());
+		// and the new time is recorded, so they aren't loaded again
+		build();
+		assertEquals(0, getLoaded());
+	}
+
+	@Test
+	public void dependencyNoLongerUsed() throws Exception {
+		edit("first/firstModule.js", module("first", "/js/shared/other.js"));
+		assertEquals(Arrays.asList("firstModule.js"), build());
+		edit("shared/helper.js", "define([ 'angular' ], function(angular) {\n\tvar helper = 2;\n});\n");
+		assertEquals(Arrays.asList("secondModule.js"), build());
+		edit("shared/other.js", "define([ 'angular' ], function(angular) {\n\tvar other = 2;\n});\n");
+		assertEquals(Arrays.asList("firstModule.js", "thirdModule.js"), build());
+	}
+
+	@Test
+	public void templateAdded() throws Exception {
+		write("first/added.html", "<p>added</p>\n");
+		assertEquals(Arrays.asList("firstModule.js"), build());
+		assertTrue(read("firstModule.js").contains("/first/added.html"));
+	}
+
+	@Test
+	public void templateDeleted() throws Exception {
+		assertTrue(new File(root, "src/main/js/first/view.html").delete());
+		assertEquals(Arrays.asList("firstModule.js"), build());
+		assertFalse(read("firstModule.js").contains("/first/view.html"));
+	}
+
+	@Test
+	public void templateEdited() throws Exception {
+		edit("first/view.html", "<p>edited</p>\n");
+		assertEquals(Arrays.asList("firstModule.js"), build());
+		assertTrue(read("firstModule.js").contains("edited"));
+	}
+
+	@Test
+	public void dependencyDeleted() throws Exception {
+		assertTrue(new File(root, "src/main/js/shared/helper.js").delete());
+		// the modules that still need it can't be built, rather than being left as they were
+		try {
+			build();
+			fail("built without a dependency");
+		} catch (MojoExecutionException e) {
+			assertTrue(e.getCause().getMessage().contains("helper.js"));
+		}
+		edit("first/firstModule.js", module("first"));
+		edit("second/secondModule.js", module("second"));
+		assertEquals(Arrays.asList("firstModule.js", "secondModule.js"), build());
+		assertFalse(read("firstModule.js").contains("helper"));
+	}
+
+	@Test
+	public void toldWhatChanged() throws Exception {
+		watch();
+		File helper = edit("shared/helper.js", "define([ 'angular' ], function(angular) {\n\tvar helper = 2;\n});\n");
+		File added = write("first/added.html", "<p>added</p>\n");
+		assertEquals(Arrays.asList("firstModule.js", "secondModule.js"), build(Arrays.asList(helper, added), NONE));
+		assertEquals(2, getLoaded());
+		assertTrue(read("firstModule.js").contains("/first/added.html"));
+
+		assertEquals(NONE_BUILT, build(NONE, NONE));
+		assertEquals(0, getLoaded());
+	}
+
+	@Test
+	public void toldTemplateDeleted() throws Exception {
+		watch();
+		File view = new File(root, "src/main/js/first/view.html");
+		assertTrue(view.delete());
+		assertEquals(Arrays.asList("firstModule.js"), build(NONE, Arrays.asList(view)));
+		assertFalse(read("firstModule.js").contains("/first/view.html"));
+	}
+
+	@Test
+	public void toldFolderDeleted() throws Exception {
+		watch();
+		File shared = new File(root, "src/main/js/shared");
+		FileUtils.deleteDirectory(shared);
+		// every output built from a file that was in the folder
+		try {
+			build(NONE, Arrays.asList(shared));
+			fail("built without a dependency");
+		} catch (FileNotFoundException e) {
+			assertTrue(e.getMessage().contains("shared"));
+		}
+		File helper = write("shared/helper.js", "define([ 'angular' ], function(angular) {\n\tvar helper = 3;\n});\n");
+		File other = write("shared/other.js", "define([ 'angular' ], function(angular) {\n\tvar other = 3;\n});\n");
+		assertEquals(Arrays.asList("firstModule.js", "secondModule.js", "thirdModule.js"), build(Arrays.asList(helper, other), NONE));
+		assertTrue(read("thirdModule.js").contains("other = 3"));
+	}
+
+	@After
+	public void tearDown() {
+		if (join != null) {
+			join.close();
+		}
+	}
+
+	/**
+	 * @return the names of the outputs that were built, whether or not their content changed
+	 */
+	private List<String> build() throws Exception {
+		if (join != null) {
+			join.close();
+		}
+		join = join();
+		join.execute();
+		return built();
+	}
+
+	/**
+	 * Start a build that is kept going, the way join-watch does
+	 */
+	private void watch() throws Exception {
+		join = join();
+		join.initialize();
+		join.keepModules();
+		join.build(null, null);
+	}
+
+	/**
+	 * Build again, told which files have changed
+	 */
+	private List<String> build(final List<File> changed, final List<File> deleted) throws Exception {
+		Mojos.log(join).clear();
+		join.build(changed, deleted);
+		return built();
+	}
+
+	private JoinMojo join() throws ReflectiveOperationException {
+		JoinMojo result = Mojos.join(root);
+		Mojos.set(result, "report", new File(root, "target/report.json"));
+		return result;
+	}
+
+	private List<String> built() {
+		Set<String> results = new TreeSet<>();
+		for (String message : Mojos.log(join).find("info", "Output file unchanged: ")) {
+			results.add(new File(message.substring(message.indexOf(": ") + 2)).getName());
+		}
+		for (String message : Mojos.log(join).find("info", "Wrote output file: ")) {
+			results.add(new File(message.substring(message.indexOf(": ") + 2)).getName());
+		}
+		return Arrays.asList(results.toArray(new String[results.size()]));
+	}
+
+	private int getLoaded() throws IOException {
+		Matcher matcher = LOADED.matcher(Mojos.read(new File(root, "target/report.json")));
+		assertTrue(matcher.find());
+		return Integer.parseInt(matcher.group(1));
+	}
+
+	private static String module(final String name, final String... deps) {
+		StringBuilder result = new StringBuilder("define([ 'angular'");
+		for (String dep : deps) {
+			result.append(", '").append(dep).append('\'');
+		}
+		return result.append(" ], function(angular) {\n\treturn angular.module('").append(name).append("', []);\n});\n").toString();
+	}
+
+	private String read(final String output) throws IOException {
+		return Mojos.read(new File(target, output));
+	}
+
+	private File write(final String path, final String contents) throws IOException {
+		return Mojos.write(root, "src/main/js/" + path, contents);
+	}
+
+	/**
+	 * Change a file, making sure its modification time moves on even on file systems that only keep whole seconds
+	 */
+	private File edit(final String path, final String contents) throws IOException {
+		File file = new File(root, "src/main/js/" + path);
+		long lastModified = file.lastModified();
+		write(path, contents);
+		assertTrue(file.setLastModified(lastModified + 10000));
+		return file;
+	}
+}
@@ -0,0 +1,228 @@
+package com.keithbranton.mojo;
+
+import static com.keithbranton.mojo.Mojos.set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+
+/**
+ * Checks the order join inlines dependencies in, and that it deletes the outputs it no longer generates, along with their copies, and
+ * nothing else
+ *
+ * @author Keith Branton
+ */
+public class JoinMojoTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+	private File target;
+
+	@Before
+	public void setUp() throws IOException {
+		root = folder.getRoot();
+		target = new File(root, "target/js");
+		write("src/main/js/main.js", "require.config({\n\tpaths : {\n\t\t'FirstModule' : '/js/first/firstModule'\n\t}\n});\n");
+		write("src/main/js/app.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('app', []);\n});\n");
+		write("src/main/js/first/firstModule.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('first', []);\n});\n");
+		write("src/main/js/second/secondModule.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('second', []);\n});\n");
+		write("src/main/js/second/view.html", "<p>second</p>\n");
+	}
+
+	@Test
+	public void deletedModule() throws Exception {
+		join(new File(root, "src/main/js")).execute();
+		File output = new File(target, "secondModule.js");
+		assertTrue(output.isFile());
+
+		FileUtils.deleteDirectory(new File(root, "src/main/js/second"));
+		join(new File(root, "src/main/js")).execute();
+		assertFalse(output.exists());
+		assertTrue(new File(target, "firstModule.js").isFile());
+		assertTrue(new File(target, "app.js").isFile());
+		assertTrue(new File(target, "main.js").isFile());
+	}
+
+	@Test
+	public void copiesAreDeletedToo() throws Exception {
+		JoinMojo join = join(new File(root, "src/main/js"));
+		set(join, "gzip", true);
+		set(join, "hashNames", true);
+		join.execute();
+		File output = new File(target, "secondModule.js");
+		HashManifest manifest = new HashManifest(new File(root, "target/angular-maven-plugin/join-manifest.json"), target);
+		manifest.load();
+		File copy = manifest.get(output);
+		assertNotNull(copy);
+		assertTrue(Precompressor.sidecar(output).isFile());
+
+		FileUtils.deleteDirectory(new File(root, "src/main/js/second"));
+		join = join(new File(root, "src/main/js"));
+		set(join, "gzip", true);
+		set(join, "hashNames", true);
+		join.execute();
+		assertFalse(output.exists());
+		assertFalse(Precompressor.sidecar(output).exists());
+		assertFalse(copy.exists());
+		assertFalse(Precompressor.sidecar(copy).exists());
+		manifest.load();
+		assertNull(manifest.getPath("secondModule.js"));
+		assertNotNull(manifest.get(new File(target, "firstModule.js")));
+	}
+
+	@Test
+	public void moduleNoLongerMatched() throws Exception {
+		join(new File(root, "src/main/js")).execute();
+		File output = new File(target, "secondModule.js");
+		assertTrue(output.isFile());
+
+		JoinMojo join = join(new File(root, "src/main/js"));
+		set(join, "modules", "first/*Module.js");
+		join.execute();
+		assertFalse(output.exists());
+		assertTrue(new File(target, "firstModule.js").isFile());
+	}
+
+	@Test
+	public void otherFilesAreKept() throws Exception {
+		File other = new File(target, "other.js");
+		write("target/js/other.js", "var other;\n");
+		join(new File(root, "src/main/js")).execute();
+		FileUtils.deleteDirectory(new File(root, "src/main/js/second"));
+		join(new File(root, "src/main/js")).execute();
+		assertTrue(other.isFile());
+	}
+
+	@Test
+	public void outputsOfAnotherSourceAreKept() throws Exception {
+		write("other/main/js/otherModule.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('other', []);\n});\n");
+		write("other/main/js/main.js", "require.config({});\n");
+		write("other/main/js/app.js", "define([], function() {\n});\n");
+		join(new File(root, "src/main/js")).execute();
+		join(new File(root, "other/main/js")).execute();
+		assertTrue(new File(target, "otherModule.js").isFile());
+		assertTrue(new File(target, "secondModule.js").isFile());
+		assertTrue(new File(target, "firstModule.js").isFile());
+	}
+
+	@Test
+	public void diamondIsInlinedInPostOrder() throws Exception {
+		write("src/main/js/diamond/diamondModule.js", define("'angular', 'left.js', 'right.js'", "angular", "module"));
+		write("src/main/js/diamond/left.js", define("'bottom.js'", "", "left"));
+		write("src/main/js/diamond/right.js", define("'bottom.js'", "", "right"));
+		write("src/main/js/diamond/bottom.js", define("'angular'", "angular", "bottom"));
+		join(new File(root, "src/main/js")).execute();
+		String output = Mojos.read(new File(target, "diamondModule.js"));
+		// each file after everything it depends on, and only once
+		assertEquals(Arrays.asList("bottom", "left", "right", "module"), bodies(output));
+	}
+
+	@Test
+	public void sortedHeader() throws Exception {
+		write("src/main/js/sorted/sortedModule.js", define("'zeta', 'angular', 'helper.js', 'alpha', 'extra'", "z, ng, h, a", "module"));
+		write("src/main/js/sorted/helper.js", define("'jquery'", "$", "helper"));
+		join(new File(root, "src/main/js")).execute();
+		// the referenced dependencies sorted, with their parameters in the same order, then the rest - the internal one is inlined
+		assertEquals("define([ \"alpha\", \"angular\", \"jquery\", \"zeta\", \"extra\" ], function(a, ng, $, z) {",
+				Mojos.read(new File(target, "sortedModule.js")).split("\n")[0]);
+	}
+
+	@Test
+	public void orderDoesNotDependOnTheWalk() throws Exception {
+		List<String[]> files = new ArrayList<>();
+		files.add(new String[] { "main.js", "require.config({});\n" });
+		files.add(new String[] { "app.js", define("'angular', '/js/shared/z.js', '/js/shared/a.js'", "angular", "app") });
+		files.add(new String[] { "shared/a.js", define("'/js/shared/m.js', 'lodash'", "_", "a") });
+		files.add(new String[] { "shared/m.js", define("'moment'", "moment", "m") });
+		files.add(new String[] { "shared/z.js", define("'/js/shared/m.js', 'jquery'", "$", "z") });
+		for (String name : Arrays.asList("one", "two", "three")) {
+			files.add(new String[] { name + "/" + name + "Module.js",
+					define("'angular', 'b.js', '/js/shared/z.js', 'a.js', '/js/shared/a.js'", "angular", name) });
+			files.add(new String[] { name + "/a.js", define("'b.js'", "", name + "A") });
+			files.add(new String[] { name + "/b.js", define("'/js/shared/m.js'", "", name + "B") });
+			files.add(new String[] { name + "/view.html", "<p>" + name + "</p>\n" });
+		}
+		File first = new File(root, "first");
+		for (String[] file : files) {
+			Mojos.write(first, "src/main/js/" + file[0], file[1]);
+		}
+		File second = new File(root, "second");
+		for (String[] file : Lists.reverse(files)) {
+			Mojos.write(second, "src/main/js/" + file[0], file[1]);
+		}
+		Mojos.join(first).execute();
+		JoinMojo join = Mojos.join(second);
+		set(join, "parallel", true);
+		set(join, "threads", 3);
+		join.execute();
+
+		File[] outputs = new File(first, "target/js").listFiles();
+		assertEquals(5, outputs.length);
+		for (File output : outputs) {
+			assertEquals(output.getName(), Mojos.read(output), Mojos.read(new File(second, "target/js/" + output.getName())));
+		}
+		assertEquals(Arrays.asList("m", "oneB", "z", "oneA", "a", "one"), bodies(Mojos.read(new File(first, "target/js/oneModule.js"))));
+	}
+
+	@Test
+	public void cycleIsReportedOnce() throws Exception {
+		write("src/main/js/cycle/cycleModule.js", define("'angular', 'y.js'", "angular", "module"));
+		write("src/main/js/cycle/y.js", define("'x.js'", "", "y"));
+		write("src/main/js/cycle/x.js", define("'y.js'", "", "x"));
+		// found again from x rather than y, by another module
+		write("src/main/js/other/otherModule.js", define("'angular', '/js/cycle/x.js'", "angular", "other"));
+		JoinMojo join = join(new File(root, "src/main/js"));
+		join.execute();
+		// started from its smallest file, however it was found
+		assertEquals(Arrays.asList("Join:: Circular dependency: /cycle/x.js -> /cycle/y.js -> /cycle/x.js"),
+				Mojos.log(join).find("warn", "Circular"));
+		// broken where it closes, so each file is still inlined once
+		assertEquals(Arrays.asList("x", "y", "module"), bodies(Mojos.read(new File(target, "cycleModule.js"))));
+		assertEquals(Arrays.asList("y", "x", "other"), bodies(Mojos.read(new File(target, "otherModule.js"))));
+	}
+
+	private JoinMojo join(final File source) throws ReflectiveOperationException {
+		JoinMojo join = Mojos.join(root);
+		set(join, "source", source);
+		return join;
+	}
+
+	private static String define(final String deps, final String params, final String body) {
+		return "define([ " + deps + " ], function(" + params + ") {\n\tvar " + body + ";\n});\n";
+	}
+
+	/**
+	 * @return the name of each var in the output, in order
+	 */
+	private static List<String> bodies(final String output) {
+		List<String> results = new ArrayList<>();
+		Matcher matcher = Pattern.compile("\tvar (\\w+);").matcher(output);
+		while (matcher.find()) {
+			results.add(matcher.group(1));
+		}
+		return results;
+	}
+
+	private void write(final String path, final String contents) throws IOException {
+		Mojos.write(root, path, contents);
+	}
+}
@@ -0,0 +1,202 @@
+package com.keithbranton.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.logging.Log;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Configures the goals the way maven would for a project under root, with the sources in src/main/js, and records what they log
+ *
+ * @author Keith Branton
+ */
+final class Mojos {
+	private Mojos() {
+	}
+
+	static JoinMojo join(final File root) throws ReflectiveOperationException {
+		JoinMojo mojo = new JoinMojo();
+		set(mojo, "source", new File(root, "src/main/js"));
+		set(mojo, "main", "main.js");
+		set(mojo, "app", "app.js");
+		set(mojo, "modules", "**/*Module.js");
+		set(mojo, "templates", "*.html");
+		set(mojo, "joinable", "/js/**/*.js");
+		set(mojo, "target", new File(root, "target/js"));
+		set(mojo, "prefix", "");
+		set(mojo, "cacheDirectory", new File(root, "target/angular-maven-plugin"));
+		set(mojo, "contentCacheSize", 16);
+		set(mojo, "commonChunk", "common.js");
+		set(mojo, "manifest", new File(root, "target/angular-maven-plugin/join-manifest.json"));
+		return configure(mojo);
+	}
+
+	static Html2jsMojo html2js(final File root) throws ReflectiveOperationException {
+		Html2jsMojo mojo = new Html2jsMojo();
+		set(mojo, "moduleName", "templates-main");
+		set(mojo, "sourceDir", new File(root, "src/main/templates"));
+		set(mojo, "angularDependency", "angular");
+		set(mojo, "include", "**/*.html");
+		set(mojo, "target", new File(root, "target/gen/templates.js"));
+		set(mojo, "cacheDirectory", new File(root, "target/angular-maven-plugin"));
+		set(mojo, "encoding", "UTF-8");
+		set(mojo, "templateFormat", "put");
+		set(mojo, "manifest", new File(root, "target/angular-maven-plugin/html2js-manifest.json"));
+		return configure(mojo);
+	}
+
+	/**
+	 * Set a parameter, as maven would
+	 */
+	static void set(final Object mojo, final String name, final Object value) throws ReflectiveOperationException {
+		for (Class<?> type = mojo.getClass(); type != null; type = type.getSuperclass()) {
+			try {
+				Field field = type.getDeclaredField(name);
+				field.setAccessible(true);
+				field.set(mojo, value);
+				return;
+			} catch (NoSuchFieldException e) {
+				// try the superclass
+			}
+		}
+		throw new NoSuchFieldException(name);
+	}
+
+	/**
+	 * @return the log the mojo writes to
+	 */
+	static RecordingLog log(final AbstractMojo mojo) {
+		return (RecordingLog) mojo.getLog();
+	}
+
+	static File write(final File root, final String path, final String contents) throws IOException {
+		File file = new File(root, path);
+		file.getParentFile().mkdirs();
+		Files.write(contents, file, Charsets.UTF_8);
+		return file;
+	}
+
+	static String read(final File file) throws IOException {
+		return Files.toString(file, Charsets.UTF_8);
+	}
+
+	private static <T extends AbstractMojo> T configure(final T mojo) throws ReflectiveOperationException {
+		set(mojo, "buildContext", new DefaultBuildContext());
+		mojo.setLog(new RecordingLog());
+		return mojo;
+	}
+
+	/**
+	 * Keeps the info, warn and error messages, each prefixed with its level, and throws away the debug ones - a build that fails
+	 * throws what went wrong anyway
+	 */
+	static class RecordingLog implements Log {
+		private final List<String> messages = new ArrayList<>();
+
+		/**
+		 * @return the messages logged at level that contain text
+		 */
+		synchronized List<String> find(final String level, final String text) {
+			List<String> results = new ArrayList<>();
+			for (String message : messages) {
+				if (message.startsWith("[" + level + "] ") && message.contains(text)) {
+					results.add(message.substring(level.length() + 3));
+				}
+			}
+			return results;
+		}
+
+		synchronized void clear() {
+			messages.clear();
+		}
+
+		private synchronized void add(final String level, final CharSequence content, final Throwable error) {
+			messages.add("[" + level + "] " + (content == null ? "" : content) + (error == null ? "" : " " + error));
+		}
+
+		@Override
+		public boolean isDebugEnabled() {
+			return false;
+		}
+
+		@Override
+		public void debug(final CharSequence content) {
+		}
+
+		@Override
+		public void debug(final CharSequence content, final Throwable error) {
+		}
+
+		@Override
+		public void debug(final Throwable error) {
+		}
+
+		@Override
+		public boolean isInfoEnabled() {
+			return true;
+		}
+
+		@Override
+		public void info(final CharSequence content) {
+			add("info", content, null);
+		}
+
+		@Override
+		public void info(final CharSequence content, final Throwable error) {
+			add("info", content, error);
+		}
+
+		@Override
+		public void info(final Throwable error) {
+			add("info", null, error);
+		}
+
+		@Override
+		public boolean isWarnEnabled() {
+			return true;
+		}
+
+		@Override
+		public void warn(final CharSequence content) {
+			add("warn", content, null);
+		}
+
+		@Override
+		public void warn(final CharSequence content, final Throwable error) {
+			add("warn", content, error);
+		}
+
+		@Override
+		public void warn(final Throwable error) {
+			add("warn", null, error);
+		}
+
+		@Override
+		public boolean isErrorEnabled() {
+			return true;
+		}
+
+		@Override
+		public void error(final CharSequence content) {
+			add("error", content, null);
+		}
+
+		@Override
+		public void error(final CharSequence content, final Throwable error) {
+			add("error", content, error);
+		}
+
+		@Override
+		public void error(final Throwable error) {
+			add("error", null, error);
+		}
+	}
+}
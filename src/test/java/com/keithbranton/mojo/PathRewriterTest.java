@@ -0,0 +1,80 @@
+package com.keithbranton.mojo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Checks which of several keys PathRewriter replaces where they overlap, share a prefix or are next to each other
+ *
+ * @author Keith Branton
+ */
+public class PathRewriterTest {
+	@Test
+	public void noMatch() {
+		PathRewriter rewriter = rewriter("/first/firstModule", "/firstModule");
+		assertEquals("", rewriter.rewrite(""));
+		assertEquals("require.config({});", rewriter.rewrite("require.config({});"));
+		assertEquals("/first/firstModul", rewriter.rewrite("/first/firstModul"));
+		assertEquals("abc", rewriter("", "x").rewrite("abc"));
+		assertEquals("abc", new PathRewriter(new LinkedHashMap<String, String>()).rewrite("abc"));
+	}
+
+	@Test
+	public void prefixKeys() {
+		// whichever order they are given in, the longer key wins where both match
+		for (PathRewriter rewriter : new PathRewriter[] { rewriter("a/b", "1", "a/bc", "2"), rewriter("a/bc", "2", "a/b", "1") }) {
+			assertEquals("'2' '1' '1d'", rewriter.rewrite("'a/bc' 'a/b' 'a/bd'"));
+		}
+		assertEquals("x/firstModule.3f9a1c2b'",
+				rewriter("/first/first", "/first", "/first/firstModule", "/firstModule.3f9a1c2b").rewrite("x/first/firstModule'"));
+	}
+
+	@Test
+	public void overlappingKeys() {
+		// the leftmost wins, even over a longer match that starts later
+		assertEquals("1c", rewriter("ab", "1", "bc", "2").rewrite("abc"));
+		assertEquals("1cd", rewriter("ab", "1", "bcd", "2").rewrite("abcd"));
+		assertEquals("a2", rewriter("abcx", "1", "bc", "2").rewrite("abc"));
+		// a key that ends inside a longer one that fails to match
+		assertEquals("x1", rewriter("xabc", "2", "ab", "1").rewrite("xab"));
+		assertEquals("2d", rewriter("xabc", "2", "ab", "1").rewrite("xabcd"));
+		assertEquals("1", rewriter("aaa", "1", "aa", "2").rewrite("aaa"));
+		assertEquals("2", rewriter("aaa", "1", "aa", "2").rewrite("aa"));
+		assertEquals("12", rewriter("aaa", "1", "aa", "2").rewrite("aaaaa"));
+	}
+
+	@Test
+	public void adjacentMatches() {
+		PathRewriter rewriter = rewriter("/a", "[A]", "/b", "[B]");
+		assertEquals("[A][B][A][A]", rewriter.rewrite("/a/b/a/a"));
+		assertEquals("x[A]y[B]", rewriter.rewrite("x/ay/b"));
+	}
+
+	@Test
+	public void replacementsAreNotRescanned() {
+		assertEquals("ba", rewriter("a", "b", "b", "a").rewrite("ab"));
+		assertEquals("aa", rewriter("a", "aa").rewrite("a"));
+	}
+
+	@Test
+	public void moduleMap() {
+		PathRewriter rewriter = rewriter("/first/firstModule", "/firstModule", "/firstSub/firstSubModule", "/firstSubModule");
+		assertEquals("paths : {\n\tfirst : 'js/firstModule',\n\tfirstSub : 'js/firstSubModule'\n}",
+				rewriter.rewrite("paths : {\n\tfirst : 'js/first/firstModule',\n\tfirstSub : 'js/firstSub/firstSubModule'\n}"));
+	}
+
+	/**
+	 * @param replacements each key followed by its replacement
+	 */
+	private static PathRewriter rewriter(final String... replacements) {
+		Map<String, String> results = new LinkedHashMap<>();
+		for (int i = 0; i < replacements.length; i += 2) {
+			results.put(replacements[i], replacements[i + 1]);
+		}
+		return new PathRewriter(results);
+	}
+}
@@ -0,0 +1,155 @@
+package com.keithbranton.mojo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ * Checks that Precompressor's sidecars decompress to their outputs, and that a sidecar is only written when its content changes
+ *
+ * @author Keith Branton
+ */
+public class PrecompressorTest {
+	private static final long AN_HOUR_AGO = System.currentTimeMillis() - 3600000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Precompressor precompressor;
+
+	@Before
+	public void setUp() {
+		precompressor = new Precompressor(4);
+	}
+
+	@After
+	public void tearDown() {
+		precompressor.close();
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		File output = write("firstModule.js", repeat("define([], function() { return 'first'; });\n", 1000));
+		assertTrue(precompressor.submit(output, true));
+		List<Precompressor.Result> results = precompressor.finish();
+		assertEquals(1, results.size());
+		assertTrue(results.get(0).isWritten());
+		assertEquals(Precompressor.sidecar(output), results.get(0).getSidecar());
+		assertArrayEquals(Files.toByteArray(output), gunzip(Precompressor.sidecar(output)));
+		assertTrue(Precompressor.sidecar(output).length() < output.length() / 10);
+	}
+
+	@Test
+	public void emptyOutput() throws Exception {
+		File output = write("empty.js", "");
+		precompressor.submit(output, true);
+		precompressor.finish();
+		assertArrayEquals(new byte[0], gunzip(Precompressor.sidecar(output)));
+	}
+
+	@Test
+	public void sameOutputGivesSameSidecar() throws Exception {
+		File first = write("first.js", repeat("var a = 1;\n", 500));
+		File second = write("second.js", repeat("var a = 1;\n", 500));
+		precompressor.submit(first, true);
+		precompressor.submit(second, true);
+		precompressor.finish();
+		assertArrayEquals(Files.toByteArray(Precompressor.sidecar(first)), Files.toByteArray(Precompressor.sidecar(second)));
+	}
+
+	@Test
+	public void unchangedSidecarIsNotRewritten() throws Exception {
+		File output = write("app.js", repeat("var a = 1;\n", 500));
+		precompressor.submit(output, true);
+		precompressor.finish();
+		File sidecar = Precompressor.sidecar(output);
+		assertTrue(sidecar.setLastModified(AN_HOUR_AGO));
+
+		// written again with the same content
+		assertTrue(precompressor.submit(output, true));
+		assertFalse(precompressor.finish().get(0).isWritten());
+		assertEquals(AN_HOUR_AGO / 1000, sidecar.lastModified() / 1000);
+
+		// not written, but newer than its sidecar - the trailer shows the content is the same
+		assertTrue(precompressor.submit(output, false));
+		assertFalse(precompressor.finish().get(0).isWritten());
+		assertEquals(AN_HOUR_AGO / 1000, sidecar.lastModified() / 1000);
+	}
+
+	@Test
+	public void olderOutputIsNotLookedAt() throws Exception {
+		File output = write("app.js", "var a = 1;\n");
+		precompressor.submit(output, true);
+		precompressor.finish();
+		assertTrue(output.setLastModified(AN_HOUR_AGO));
+		assertFalse(precompressor.submit(output, false));
+		assertTrue(precompressor.finish().isEmpty());
+	}
+
+	@Test
+	public void changedOutputIsCompressedAgain() throws Exception {
+		File output = write("app.js", "var a = 1;\n");
+		precompressor.submit(output, true);
+		precompressor.finish();
+		File sidecar = Precompressor.sidecar(output);
+		assertTrue(sidecar.setLastModified(AN_HOUR_AGO));
+
+		// changed by something else, so not written by this build, but the same size
+		write("app.js", "var b = 2;\n");
+		assertTrue(precompressor.submit(output, false));
+		assertTrue(precompressor.finish().get(0).isWritten());
+		assertArrayEquals(Files.toByteArray(output), gunzip(sidecar));
+	}
+
+	@Test
+	public void resultsInSubmissionOrder() throws Exception {
+		List<File> outputs = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			// the first ones are the largest, so finish last
+			outputs.add(write("module" + i + ".js", repeat("var a" + i + " = " + i + ";\n", (20 - i) * 2000)));
+			precompressor.submit(outputs.get(i), true);
+		}
+		List<Precompressor.Result> results = precompressor.finish();
+		assertEquals(outputs.size(), results.size());
+		for (int i = 0; i < outputs.size(); i++) {
+			assertEquals(outputs.get(i), results.get(i).getFile());
+			assertArrayEquals(Files.toByteArray(outputs.get(i)), gunzip(results.get(i).getSidecar()));
+		}
+	}
+
+	private static byte[] gunzip(final File file) throws IOException {
+		try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+			return ByteStreams.toByteArray(in);
+		}
+	}
+
+	private static String repeat(final String s, final int times) {
+		StringBuilder result = new StringBuilder(s.length() * times);
+		for (int i = 0; i < times; i++) {
+			result.append(s);
+		}
+		return result.toString();
+	}
+
+	private File write(final String path, final String contents) throws IOException {
+		return Mojos.write(folder.getRoot(), path, contents);
+	}
+}
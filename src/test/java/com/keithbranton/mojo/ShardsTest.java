@@ -0,0 +1,169 @@
+package com.keithbranton.mojo;
+
+import static com.keithbranton.mojo.Mojos.read;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+
+/**
+ * Checks how html2js splits the templates into shards, by pattern and by size, and the index module it writes to target
+ *
+ * @author Keith Branton
+ */
+public class ShardsTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+	private File gen;
+
+	@Before
+	public void setUp() throws IOException {
+		root = folder.getRoot();
+		gen = new File(root, "target/gen");
+		write("admin/roles.html", template("roles", 600));
+		write("admin/users.html", template("users", 600));
+		write("about.html", template("about", 300));
+		write("home.html", template("home", 300));
+	}
+
+	@Test
+	public void byPattern() throws Exception {
+		html2js("admin/**", 0).execute();
+		assertEquals("angular.module('templates-main', []).constant('templateShards', {\n" //
+				+ "\tfiles : {\n" //
+				+ "\t\t'templates-main-0' : 'templates-0.js',\n" //
+				+ "\t\t'templates-main-1' : 'templates-1.js'\n" //
+				+ "\t},\n" //
+				+ "\ttemplates : {\n" //
+				+ "\t\t'/admin/roles.html' : 'templates-main-0',\n" //
+				+ "\t\t'/admin/users.html' : 'templates-main-0',\n" //
+				+ "\t\t'/about.html' : 'templates-main-1',\n" //
+				+ "\t\t'/home.html' : 'templates-main-1'\n" //
+				+ "\t}\n" //
+				+ "});\n", read(new File(gen, "templates.js")));
+		assertShard(0, "roles", "users");
+		assertShard(1, "about", "home");
+		assertFalse(new File(gen, "templates-2.js").exists());
+	}
+
+	@Test
+	public void bySize() throws Exception {
+		// roles and users don't fit in 1KB together, about and home do
+		html2js("admin/**", 1).execute();
+		String index = read(new File(gen, "templates.js"));
+		assertTrue(index, index.contains("\t\t'templates-main-2' : 'templates-2.js'\n\t},"));
+		assertTrue(index, index.contains("\t\t'/admin/roles.html' : 'templates-main-0',\n"
+				+ "\t\t'/admin/users.html' : 'templates-main-1',\n" //
+				+ "\t\t'/about.html' : 'templates-main-2',\n" //
+				+ "\t\t'/home.html' : 'templates-main-2'\n"));
+		assertShard(0, "roles");
+		assertShard(1, "users");
+		assertShard(2, "about", "home");
+
+		// without patterns they are packed in order of their paths
+		html2js(null, 1).execute();
+		assertShard(0, "about", "roles");
+		assertShard(1, "users", "home");
+		assertFalse(new File(gen, "templates-2.js").exists());
+	}
+
+	@Test
+	public void templateLargerThanShardSize() throws Exception {
+		write("big.html", template("big", 2000));
+		html2js(null, 1).execute();
+		assertShard(0, "about", "roles");
+		assertShard(1, "users");
+		assertShard(2, "big");
+		assertShard(3, "home");
+	}
+
+	@Test
+	public void fewerShards() throws Exception {
+		html2js("admin/**", 1).execute();
+		assertTrue(new File(gen, "templates-2.js").exists());
+		html2js("admin/**", 0).execute();
+		assertFalse(new File(gen, "templates-2.js").exists());
+
+		// and back to a single file
+		Html2jsMojo html2js = html2js(null, 0);
+		html2js.execute();
+		assertFalse(new File(gen, "templates-0.js").exists());
+		assertFalse(new File(gen, "templates-1.js").exists());
+		assertTrue(read(new File(gen, "templates.js")).contains("'/admin/users.html'"));
+		assertEquals(2, Mojos.log(html2js).find("info", "Deleting unused shard").size());
+	}
+
+	@Test
+	public void requireWrapper() throws Exception {
+		Html2jsMojo html2js = html2js("admin/**", 0);
+		Mojos.set(html2js, "addRequireWrapper", true);
+		html2js.execute();
+		String index = read(new File(gen, "templates.js"));
+		assertTrue(index, index.startsWith("define(['angular'], function (angular){\n\n"
+				+ "angular.module('templates-main', []).constant('templateShards', {\n"));
+		assertTrue(index, index.endsWith("});\n\nreturn null;\n});\n"));
+		assertTrue(read(new File(gen, "templates-0.js")).startsWith("define(['angular'], function (angular){\n"));
+	}
+
+	@Test
+	public void hashedShards() throws Exception {
+		Html2jsMojo html2js = html2js("admin/**", 0);
+		Mojos.set(html2js, "hashNames", true);
+		html2js.execute();
+		HashManifest manifest = new HashManifest(new File(root, "target/angular-maven-plugin/html2js-manifest.json"), gen);
+		manifest.load();
+		String index = read(new File(gen, "templates.js"));
+		for (int i = 0; i < 2; i++) {
+			String hashed = manifest.getPath("templates-" + i + ".js");
+			assertTrue(hashed.startsWith("templates-" + i + "."));
+			assertTrue(index, index.contains("\t\t'templates-main-" + i + "' : '" + hashed + "'"));
+		}
+	}
+
+	private Html2jsMojo html2js(final String shards, final int shardSize) throws ReflectiveOperationException {
+		Html2jsMojo html2js = Mojos.html2js(root);
+		Mojos.set(html2js, "shards", shards);
+		Mojos.set(html2js, "shardSize", shardSize);
+		return html2js;
+	}
+
+	/**
+	 * Check that a shard is a module of its own, holding just the named templates
+	 */
+	private void assertShard(final int shard, final String... names) throws IOException {
+		String contents = read(new File(gen, "templates-" + shard + ".js"));
+		assertTrue(contents, contents.startsWith("angular.module('templates-main-" + shard + "', []).run(['$templateCache'"));
+		int count = 0;
+		for (String name : new String[] { "about", "big", "home", "roles", "users" }) {
+			boolean expected = false;
+			for (String wanted : names) {
+				expected |= wanted.equals(name);
+			}
+			assertEquals(name + " in shard " + shard, expected, contents.contains("<p>" + name));
+			count += expected ? 1 : 0;
+		}
+		assertEquals(names.length, count);
+	}
+
+	/**
+	 * @return a template of about size bytes
+	 */
+	private static String template(final String name, final int size) {
+		return "<p>" + name + Strings.repeat(".", size - name.length() - 9) + "</p>\n";
+	}
+
+	private void write(final String path, final String contents) throws IOException {
+		Mojos.write(root, "src/main/templates/" + path, contents);
+	}
+}
@@ -0,0 +1,135 @@
+package com.keithbranton.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that executions only share the index of their sources and the contents of their files when sharedCache is set - as the
+ * projects of a reactor build that join the same sources would
+ *
+ * @author Keith Branton
+ */
+public class SharedCacheTest {
+	// the scripts - templates are escaped straight from disk
+	private static final int FILES = 5;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+
+	@Before
+	public void setUp() throws IOException {
+		root = folder.getRoot();
+		write("main.js", "require.config({});\n");
+		write("app.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('app', []);\n});\n");
+		write("shared/helper.js", "define([ 'angular' ], function(angular) {\n\tvar helper = 1;\n});\n");
+		write("first/firstModule.js", "define([ 'angular', '/js/shared/helper.js' ], function(angular) {\n"
+				+ "\treturn angular.module('first', []);\n});\n");
+		write("first/view.html", "<p>first</p>\n");
+		write("second/secondModule.js", "define([ 'angular', '/js/shared/helper.js' ], function(angular) {\n"
+				+ "\treturn angular.module('second', []);\n});\n");
+	}
+
+	@Test
+	public void notShared() throws Exception {
+		assertEquals(FILES, join("first", false));
+		// the second project reads every file again
+		assertEquals(FILES, join("second", false));
+	}
+
+	@Test
+	public void shared() throws Exception {
+		assertEquals(FILES, join("first", true));
+		// the second project gets every file from the first
+		assertEquals(0, join("second", true));
+
+		// and only what has changed since is read again
+		File helper = write("shared/helper.js", "define([ 'angular' ], function(angular) {\n\tvar helper = 2;\n});\n");
+		assertTrue(helper.setLastModified(helper.lastModified() + 10000));
+		assertEquals(1, join("third", true));
+		assertTrue(Mojos.read(new File(root, "third/js/secondModule.js")).contains("helper = 2"));
+	}
+
+	@Test
+	public void sharedOnlyWithExecutionsThatShare() throws Exception {
+		assertEquals(FILES, join("first", true));
+		assertEquals(FILES, join("second", false));
+	}
+
+	@Test
+	public void indexWalkedAgainOnlyWhenSomethingChanged() throws Exception {
+		File source = new File(root, "src/main/js");
+		SourceIndex index = SharedCache.walk(source);
+		assertSame(index, SharedCache.walk(source));
+
+		File added = write("third/thirdModule.js", "define([], function() {\n});\n");
+		// make sure the folder's modification time moves on even on file systems with a coarse clock
+		assertTrue(source.setLastModified(source.lastModified() + 10000));
+		SourceIndex walked = SharedCache.walk(source);
+		assertNotSame(index, walked);
+		assertTrue(walked.get(added) != null);
+
+		// an incremental build brings the shared index up to date without walking the tree
+		File other = write("third/other.js", "define([], function() {\n});\n");
+		SourceIndex updated = SharedCache.update(source, Arrays.asList(other), Collections.<File> emptyList());
+		assertTrue(updated.get(other) != null);
+		assertSame(updated, SharedCache.walk(source));
+	}
+
+	@Test
+	public void contentsSharedBetweenCaches() throws Exception {
+		File helper = new File(root, "src/main/js/shared/helper.js");
+		FileContentCache first = SharedCache.getContentCache(1024 * 1024);
+		FileContentCache second = SharedCache.getContentCache(1024);
+		assertEquals(first.get(helper), second.get(helper));
+		assertEquals(1, first.getMisses());
+		assertEquals(0, second.getMisses());
+		assertEquals(1, second.getHits());
+
+		// each cache of its own checks the file is unchanged
+		write("shared/helper.js", "changed");
+		assertTrue(helper.setLastModified(helper.lastModified() + 10000));
+		assertEquals("changed", second.get(helper));
+		assertEquals(1, second.getMisses());
+	}
+
+	/**
+	 * Join the sources into a project of their own, as another project of a reactor build would
+	 *
+	 * @return the number of files read from disk
+	 */
+	private int join(final String project, final boolean sharedCache) throws Exception {
+		JoinMojo join = Mojos.join(root);
+		Mojos.set(join, "target", new File(root, project + "/js"));
+		Mojos.set(join, "cacheDirectory", new File(root, project + "/angular-maven-plugin"));
+		Mojos.set(join, "manifest", new File(root, project + "/angular-maven-plugin/join-manifest.json"));
+		Mojos.set(join, "report", new File(root, project + "/report.json"));
+		Mojos.set(join, "sharedCache", sharedCache);
+		join.execute();
+		return getCount(project, "filesRead");
+	}
+
+	private int getCount(final String project, final String name) throws IOException {
+		Matcher matcher = Pattern.compile("\"" + name + "\": (\\d+)").matcher(Mojos.read(new File(root, project + "/report.json")));
+		return matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+	}
+
+	private File write(final String path, final String contents) throws IOException {
+		return Mojos.write(root, "src/main/js/" + path, contents);
+	}
+}
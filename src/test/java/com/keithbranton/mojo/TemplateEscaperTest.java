@@ -0,0 +1,134 @@
+package com.keithbranton.mojo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+
+/**
+ * Checks that TemplateEscaper writes what the line by line escaping it replaced did, and the escapes it added
+ *
+ * @author Keith Branton
+ */
+public class TemplateEscaperTest {
+	private static final String KEY = "'/home.html'";
+
+	private final TemplateEscaper escaper = new TemplateEscaper(Charsets.UTF_8);
+
+	@Test
+	public void sameAsLineByLine() throws IOException {
+		String[] templates = { "", "\n", "\r", "\r\n", "\n\n", "\r\r", "\r\n\r\n", "\n\r", "<p>", "<p>\n", "<p>\r\n", "<p>\r",
+				"<p>\n\n", "<p>\r\n\r\n", "<div>\r\n\t<p>a</p>\r\n</div>\r\n", "<div>\r\t<p>a</p>\r</div>", "a\r\r\nb\n\rc",
+				"\n<p>\n", "<p title=\"a\">\"</p>", "c:\\path\\", "\\\"", "\\n", "<p>\t</p>  \n  " };
+		for (String template : templates) {
+			assertEquals(visible(template), lineByLine(template), put(template));
+		}
+	}
+
+	@Test
+	public void breakAcrossBuffers() throws IOException {
+		// the reads are 8192 characters at a time, so the \r ends one read and the \n starts the next
+		for (int length = 8189; length <= 8193; length++) {
+			String template = Strings.repeat("a", length) + "\r\n\"b\"\r\n" + Strings.repeat("c\\", length) + "\r";
+			assertEquals(lineByLine(template), put(template));
+		}
+	}
+
+	@Test
+	public void script() throws IOException {
+		assertEquals("\t$templateCache.put(" + KEY + ",\n\t\"<script><\\/script>\");", put("<script></script>"));
+		assertEquals("\t$templateCache.put(" + KEY + ",\n\t\"<SCRIPT><\\/ScRiPt>\");", put("<SCRIPT></ScRiPt>"));
+		assertEquals("\t$templateCache.put(" + KEY + ",\n\t\"<<\\/script\");", put("<</script"));
+		assertEquals("\t$templateCache.put(" + KEY + ",\n\t\"</<\\/script\");", put("</</script"));
+		// only the whole thing
+		assertEquals("\t$templateCache.put(" + KEY + ",\n\t\"</scrip\");", put("</scrip"));
+		assertEquals("\t$templateCache.put(" + KEY + ",\n\t\"</scr\\n\" +\n\t\"ipt\");", put("</scr\nipt"));
+		assertEquals("\t$templateCache.put(" + KEY + ",\n\t\"</scr\\\"ipt\");", put("</scr\"ipt"));
+		assertEquals("\t$templateCache.put(" + KEY + ",\n\t\"</style>\");", put("</style>"));
+
+		// and across reads
+		for (int length = 8185; length <= 8193; length++) {
+			String padding = Strings.repeat("a", length);
+			assertEquals("\t$templateCache.put(" + KEY + ",\n\t\"" + padding + "<\\/script>\");", put(padding + "</script>"));
+			assertEquals("\t$templateCache.put(" + KEY + ",\n\t\"" + padding + "</scrip\");", put(padding + "</scrip"));
+		}
+	}
+
+	@Test
+	public void lineSeparators() throws IOException {
+		assertEquals("\t$templateCache.put(" + KEY + ",\n\t\"a\\u2028b\\u2029c\");", put("a\u2028b\u2029c"));
+		assertEquals("\t\t\"/home.html\": \"a\\u2028b\\u2029c\"", entry("a\u2028b\u2029c"));
+	}
+
+	@Test
+	public void entry() throws IOException {
+		assertEquals("\t\t\"/home.html\": \"\"", entry(""));
+		assertEquals("\t\t\"/home.html\": \"\"", entry("\r\n"));
+		assertEquals("\t\t\"/home.html\": \"<div>\\n\\t<p title=\\\"a\\\">\\\\</p>\\n</div>\"",
+				entry("<div>\r\n\t<p title=\"a\">\\</p>\r\n</div>\n"));
+		assertEquals("\t\t\"/home.html\": \"<\\/script>\"", entry("</script>"));
+		// JSON doesn't allow control characters in strings
+		assertEquals("\t\t\"/home.html\": \"a\\u0001b\\u001fc\"", entry("a\u0001b\u001fc"));
+	}
+
+	@Test
+	public void quote() throws IOException {
+		assertEquals("\"/home.html\"", TemplateEscaper.quote("/home.html"));
+		assertEquals("\"/it's \\\"quoted\\\"\\\\\\t\\u2028\"", TemplateEscaper.quote("/it's \"quoted\"\\\t\u2028"));
+	}
+
+	@Test
+	public void lineBreaks() throws IOException {
+		StringWriter out = new StringWriter();
+		escaper.writePut(new StringReader("a\nb"), KEY, out, "\r\n");
+		assertEquals("\t$templateCache.put(" + KEY + ",\r\n\t\"a\\n\" +\r\n\t\"b\");", out.toString());
+	}
+
+	private String put(final String template) throws IOException {
+		StringWriter out = new StringWriter();
+		escaper.writePut(new StringReader(template), KEY, out, "\n");
+		return out.toString();
+	}
+
+	private String entry(final String template) throws IOException {
+		StringWriter out = new StringWriter();
+		escaper.writeEntry(new StringReader(template), "/home.html", out);
+		return out.toString();
+	}
+
+	/**
+	 * @return the template escaped the way html2js and join used to - a line at a time, as read by BufferedReader
+	 */
+	private static String lineByLine(final String template) throws IOException {
+		List<String> templateLines = IOUtils.readLines(new StringReader(template));
+		List<String> lines = new ArrayList<>();
+		if (templateLines.isEmpty()) {
+			lines.add("\t$templateCache.put(" + KEY + ", \"\");");
+		} else {
+			lines.add("\t$templateCache.put(" + KEY + ",");
+			for (String line : templateLines) {
+				lines.add("\t\"" + line.replace("\\", "\\\\").replace("\"", "\\\"") + "\\n\" +");
+			}
+			lines.set(lines.size() - 1, StringUtils.chomp(lines.get(lines.size() - 1), "\\n\" +") + "\");");
+		}
+		return Joiner.on("\n").join(lines);
+	}
+
+	/**
+	 * @return the template with its line breaks made visible, to say which one failed
+	 */
+	private static String visible(final String template) {
+		return template.replace("\r", "\\r").replace("\n", "\\n");
+	}
+}
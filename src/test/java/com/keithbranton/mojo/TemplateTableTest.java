@@ -0,0 +1,144 @@
+package com.keithbranton.mojo;
+
+import static com.keithbranton.mojo.Mojos.read;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the templates written as a table, by html2js on its own and with multiModule and addRequireWrapper, and by join
+ *
+ * @author Keith Branton
+ */
+public class TemplateTableTest {
+	private static final String HOME = "<div>\n\t<h1 title=\"home\">{{title}}</h1>\n</div>\n";
+	private static final String HOME_JSON = "\"<div>\\n\\t<h1 title=\\\"home\\\">{{title}}</h1>\\n</div>\"";
+	private static final String LOOP = "\tfor (var key in templates) {\n" //
+			+ "\t\tif (templates.hasOwnProperty(key)) {\n" //
+			+ "\t\t\t$templateCache.put(key, templates[key]);\n" //
+			+ "\t\t}\n" //
+			+ "\t}\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+
+	@Before
+	public void setUp() throws IOException {
+		root = folder.getRoot();
+	}
+
+	@Test
+	public void html2js() throws Exception {
+		template("home.html", HOME);
+		template("users/list.html", "<ul>\r\n\t<li>{{user.name}}</li>\r\n</ul>");
+		template("empty.html", "");
+		table().execute();
+		assertEquals("angular.module('templates-main', []).run(['$templateCache', function($templateCache) {\n" //
+				+ "\tvar templates = {\n" //
+				+ "\t\t\"/empty.html\": \"\",\n" //
+				+ "\t\t\"/home.html\": " + HOME_JSON + ",\n" //
+				+ "\t\t\"/users/list.html\": \"<ul>\\n\\t<li>{{user.name}}</li>\\n</ul>\"\n" //
+				+ "\t};\n" //
+				+ LOOP //
+				+ "}]);\n", read(new File(root, "target/gen/templates.js")));
+	}
+
+	@Test
+	public void html2jsMultiModuleWithRequireWrapper() throws Exception {
+		template("home.html", HOME);
+		template("about.html", "<p>about</p>");
+		Html2jsMojo html2js = table();
+		Mojos.set(html2js, "multiModule", true);
+		Mojos.set(html2js, "addRequireWrapper", true);
+		html2js.execute();
+		assertEquals("define(['angular'], function (angular){\n" //
+				+ "\n" //
+				+ "angular.module('templates-main', ['/about.html', '/home.html']);\n" //
+				+ "\n" //
+				+ "angular.module('/about.html', []).run(['$templateCache', function($templateCache) {\n" //
+				+ "\tvar templates = {\n" //
+				+ "\t\t\"/about.html\": \"<p>about</p>\"\n" //
+				+ "\t};\n" //
+				+ LOOP //
+				+ "}]);\n" //
+				+ "\n" //
+				+ "angular.module('/home.html', []).run(['$templateCache', function($templateCache) {\n" //
+				+ "\tvar templates = {\n" //
+				+ "\t\t\"/home.html\": " + HOME_JSON + "\n" //
+				+ "\t};\n" //
+				+ LOOP //
+				+ "}]);\n" //
+				+ "\n" //
+				+ "\n" //
+				+ "return null;\n" //
+				+ "});\n", read(new File(root, "target/gen/templates.js")));
+	}
+
+	@Test
+	public void html2jsKeysAreEscaped() throws Exception {
+		template("it's.html", "<p>\u2028</script></p>");
+		Html2jsMojo html2js = table();
+		Mojos.set(html2js, "prefix", "\"quoted\"");
+		html2js.execute();
+		assertTrue(read(new File(root, "target/gen/templates.js")).contains(
+				"\t\t\"\\\"quoted\\\"/it's.html\": \"<p>\\u2028<\\/script></p>\"\n"));
+	}
+
+	@Test
+	public void join() throws Exception {
+		script("main.js", "require.config({});\n");
+		script("app.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('app', []);\n});\n");
+		script("first/firstModule.js", "define([ 'angular' ], function(angular) {\n\treturn angular.module('first', []);\n});\n");
+		script("first/home.html", HOME);
+		script("first/view.html", "<p>view</p>");
+		JoinMojo join = Mojos.join(root);
+		Mojos.set(join, "templateFormat", "table");
+		join.execute();
+		String module = read(new File(root, "target/js/firstModule.js"));
+		String table = "angular.module(\"firstModuleTemplates\", []).run([\"$templateCache\", function($templateCache) {\n" //
+				+ "\tvar templates = {\n" //
+				+ "\t\t\"/first/home.html\": " + HOME_JSON + ",\n" //
+				+ "\t\t\"/first/view.html\": \"<p>view</p>\"\n" //
+				+ "\t};\n" //
+				+ LOOP //
+				+ "}]);\n";
+		assertTrue(module, module.contains(table));
+	}
+
+	@Test
+	public void unknownFormat() throws Exception {
+		Html2jsMojo html2js = Mojos.html2js(root);
+		Mojos.set(html2js, "templateFormat", "json");
+		try {
+			html2js.execute();
+			fail("accepted an unknown format");
+		} catch (MojoExecutionException e) {
+			assertEquals("Html2js:: templateFormat must be put or table, not: json", e.getMessage());
+		}
+	}
+
+	private Html2jsMojo table() throws ReflectiveOperationException {
+		Html2jsMojo html2js = Mojos.html2js(root);
+		Mojos.set(html2js, "templateFormat", "table");
+		return html2js;
+	}
+
+	private void template(final String path, final String contents) throws IOException {
+		Mojos.write(root, "src/main/templates/" + path, contents);
+	}
+
+	private void script(final String path, final String contents) throws IOException {
+		Mojos.write(root, "src/main/js/" + path, contents);
+	}
+}